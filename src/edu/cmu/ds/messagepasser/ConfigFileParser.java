@@ -3,6 +3,7 @@ package edu.cmu.ds.messagepasser;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
@@ -11,6 +12,7 @@ import java.util.TreeMap;
 
 import org.yaml.snakeyaml.Yaml;
 
+import edu.cmu.ds.messagepasser.model.Group;
 import edu.cmu.ds.messagepasser.model.Node;
 import edu.cmu.ds.messagepasser.model.Rule;
 
@@ -23,13 +25,23 @@ public class ConfigFileParser {
 	private Node localNode;
 	private Integer localNodeIndex = 0;
 	private TreeMap<String, ArrayList<String>> groupMembers = new TreeMap<String, ArrayList<String>>();
+	private TreeMap<String, Group> groups = new TreeMap<String, Group>();
 
 	@SuppressWarnings("unchecked")
 	public ConfigFileParser(String configurationFileName, String localName) throws FileNotFoundException {
 
 		InputStream input = new FileInputStream(new File(configurationFileName));
-		Yaml yaml = new Yaml();
-		Map<String, Object> configMap = (Map<String, Object>) yaml.load(input);
+		Map<String, Object> configMap;
+		try {
+			Yaml yaml = new Yaml();
+			configMap = (Map<String, Object>) yaml.load(input);
+		} finally {
+			try {
+				input.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 
 		parseNodes(configMap, localName);
 		parseGroups(configMap);
@@ -53,6 +65,22 @@ public class ConfigFileParser {
 			Map<String, Object> configEntry = (Map<String, Object>) c;
 			Node node = new Node(configEntry.get("name").toString(), configEntry.get("ip").toString(), new Integer(
 					configEntry.get("port").toString()), (ArrayList<String>) configEntry.get("memberOf"));
+			if (configEntry.get("ioThreads") != null)
+				node.setIoThreads(Integer.parseInt(configEntry.get("ioThreads").toString()));
+			if (configEntry.get("codec") != null)
+				node.setCodec(configEntry.get("codec").toString());
+			if (configEntry.get("sendQueueCapacity") != null)
+				node.setSendQueueCapacity(Integer.parseInt(configEntry.get("sendQueueCapacity").toString()));
+			if (configEntry.get("sendQueuePolicy") != null)
+				node.setSendQueuePolicy(configEntry.get("sendQueuePolicy").toString());
+			if (configEntry.get("vectorDelta") != null)
+				node.setVectorDelta(Boolean.parseBoolean(configEntry.get("vectorDelta").toString()));
+			if (configEntry.get("quorum") != null)
+				node.setQuorum(configEntry.get("quorum").toString());
+			if (configEntry.get("mutex") != null)
+				node.setMutex(configEntry.get("mutex").toString());
+			if (configEntry.get("leaseMs") != null)
+				node.setLeaseMs(Integer.parseInt(configEntry.get("leaseMs").toString()));
 			if (!configEntry.get("name").equals(localName)) {
 				peerNodes.add(node);
 			} else {
@@ -77,6 +105,14 @@ public class ConfigFileParser {
 			String name = groupEntry.get("name").toString();
 			ArrayList<String> members = (ArrayList<String>) groupEntry.get("members");
 			groupMembers.put(name, members);
+			Group group = new Group(name, members);
+			if (groupEntry.get("dissemination") != null)
+				group.setDissemination(groupEntry.get("dissemination").toString());
+			if (groupEntry.get("fanout") != null)
+				group.setFanout(Integer.parseInt(groupEntry.get("fanout").toString()));
+			if (groupEntry.get("ordering") != null)
+				group.setOrdering(groupEntry.get("ordering").toString());
+			groups.put(name, group);
 		}
 	}
 
@@ -129,6 +165,12 @@ public class ConfigFileParser {
 			if (ruleEntry.get("duplicate") != null)
 				dup = Boolean.parseBoolean(ruleEntry.get("duplicate").toString());
 			Rule rule = new Rule(ruleEntry.get("action").toString(), src, dest, kind, seqNum, dup);
+			if (ruleEntry.get("delayMs") != null)
+				rule.setDelayMs(Integer.parseInt(ruleEntry.get("delayMs").toString()));
+			if (ruleEntry.get("maxDelayMs") != null)
+				rule.setMaxDelayMs(Integer.parseInt(ruleEntry.get("maxDelayMs").toString()));
+			if (ruleEntry.get("probability") != null)
+				rule.setProbability(Double.parseDouble(ruleEntry.get("probability").toString()));
 			result.add(rule);
 		}
 		return result;
@@ -169,4 +211,8 @@ public class ConfigFileParser {
 	public TreeMap<String, ArrayList<String>> getGroupMembers() {
 		return groupMembers;
 	}
+
+	public TreeMap<String, Group> getGroups() {
+		return groups;
+	}
 }
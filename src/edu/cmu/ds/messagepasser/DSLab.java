@@ -5,10 +5,11 @@ import java.io.FileNotFoundException;
 import java.io.InputStreamReader;
 
 import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
+import edu.cmu.ds.messagepasser.mutex.MutualExclusion;
 
 public class DSLab {
 
-	private final static String COMMAND_GUIDE = "Please enter a command (send/exit/mark/multicast/time/status/request/release)";
+	private final static String COMMAND_GUIDE = "Please enter a command (send/exit/mark/multicast/time/status/request [lock]/share [lock]/release [lock])";
 	private static final String DEFAULT_CONFIG_FILENAME = "config.yaml";
 
 	public static void main(String[] args) throws Exception {
@@ -69,11 +70,31 @@ public class DSLab {
 				 * Request - Request a right to enter critical section
 				 */
 				messagePasser.request();
+			} else if (command.startsWith("request ")) {
+				/*
+				 * Request <lock> - Request a named lock
+				 */
+				messagePasser.request(command.substring("request ".length()).trim());
+			} else if (command.equals("share")) {
+				/*
+				 * Share - Request a shared right to enter critical section
+				 */
+				messagePasser.request(MutualExclusion.DEFAULT_LOCK, true);
+			} else if (command.startsWith("share ")) {
+				/*
+				 * Share <lock> - Request a named lock, shared
+				 */
+				messagePasser.request(command.substring("share ".length()).trim(), true);
 			} else if (command.equals("release")) {
 				/*
 				 * Release - Announce release of critical section
 				 */
 				messagePasser.release();
+			} else if (command.startsWith("release ")) {
+				/*
+				 * Release <lock> - Release a named lock
+				 */
+				messagePasser.release(command.substring("release ".length()).trim());
 			} else if (command.equals("send")) {
 				/*
 				 * Send
@@ -143,7 +164,7 @@ public class DSLab {
 					boolean mustLog = (logInfo.toLowerCase().equals("y"));
 					TimeStampedMessage message = new TimeStampedMessage();
 					message.setSource(localName);
-					message.setMulticastMessageBody(groupName, messagePasser.getIncMulticastSequenceNumber());
+					message.setMulticastMessageBody(groupName, messagePasser.getIncMulticastSequenceNumber(groupName));
 					messagePasser.multicast(groupName, message, true);
 
 					if (mustLog) {
@@ -0,0 +1,15 @@
+package edu.cmu.ds.messagepasser;
+
+import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
+
+/**
+ * Callback for messages delivered by a MessagePasser
+ * 
+ * Listeners are invoked one message at a time, in delivery order, on a
+ * dedicated thread owned by the MessagePasser.
+ */
+public interface DeliveryListener {
+
+	public void onDelivery(TimeStampedMessage message);
+
+}
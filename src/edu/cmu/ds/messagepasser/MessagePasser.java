@@ -2,54 +2,91 @@ package edu.cmu.ds.messagepasser;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.ConnectException;
-import java.net.ServerSocket;
 import java.net.Socket;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.PriorityQueue;
-import java.util.Queue;
-import java.util.Set;
+import java.util.Random;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.cmu.ds.messagepasser.clock.ClockService;
 import edu.cmu.ds.messagepasser.clock.LogicalClock;
 import edu.cmu.ds.messagepasser.clock.VectorClock;
+import edu.cmu.ds.messagepasser.clock.VectorTimeStamp;
+import edu.cmu.ds.messagepasser.model.Group;
 import edu.cmu.ds.messagepasser.model.Message;
 import edu.cmu.ds.messagepasser.model.MutualExclusionCommand;
 import edu.cmu.ds.messagepasser.model.MutualExclusionState;
 import edu.cmu.ds.messagepasser.model.Node;
 import edu.cmu.ds.messagepasser.model.Rule;
 import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
+import edu.cmu.ds.messagepasser.multicast.DuplicateFilter;
+import edu.cmu.ds.messagepasser.multicast.MulticastGroup;
+import edu.cmu.ds.messagepasser.multicast.MulticastHistory;
+import edu.cmu.ds.messagepasser.multicast.TotalOrdering;
+import edu.cmu.ds.messagepasser.mutex.LockFuture;
+import edu.cmu.ds.messagepasser.mutex.LockHandle;
+import edu.cmu.ds.messagepasser.mutex.MaekawaMutex;
+import edu.cmu.ds.messagepasser.mutex.MutualExclusion;
+import edu.cmu.ds.messagepasser.mutex.QuorumBuilder;
+import edu.cmu.ds.messagepasser.mutex.RaymondMutex;
+import edu.cmu.ds.messagepasser.transport.FrameCodec;
+import edu.cmu.ds.messagepasser.transport.MessageCodec;
+import edu.cmu.ds.messagepasser.transport.MessageHandler;
+import edu.cmu.ds.messagepasser.transport.OutboundConnection;
+import edu.cmu.ds.messagepasser.transport.SelectorTransport;
+import edu.cmu.ds.messagepasser.transport.SendQueuePolicy;
+import edu.cmu.ds.messagepasser.util.HashedWheelTimer;
 
 public class MessagePasser {
 	public static String commandPrompt = ">: ";
+	private static final int DEFAULT_IO_THREADS = 2;
+	private static final int DEFAULT_SEND_QUEUE_CAPACITY = 1024;
+	private static final int DELIVERED_QUEUE_CAPACITY = 10000;
+	private static final int ANTI_ENTROPY_INTERVAL_MS = 1000;
+	private static final int GROUP_CHECK_INTERVAL_MS = 200;
+	private static final int RULE_TIMER_TICK_MS = 5;
+	private static final int RULE_TIMER_TICKS = 512;
 	private String configurationFileName;
 	private String localName;
 	private AtomicInteger sequenceNumber = new AtomicInteger(0);
-	private ConcurrentLinkedQueue<TimeStampedMessage> receiveBuffer = new ConcurrentLinkedQueue<TimeStampedMessage>();
+	private LinkedBlockingQueue<TimeStampedMessage> receiveBuffer = new LinkedBlockingQueue<TimeStampedMessage>();
 	private ConcurrentLinkedQueue<TimeStampedMessage> receiveDelayedBuffer = new ConcurrentLinkedQueue<TimeStampedMessage>();
 	private ConcurrentLinkedQueue<TimeStampedMessage> sendDelayedBuffer = new ConcurrentLinkedQueue<TimeStampedMessage>();
-	private LinkedList<TimeStampedMessage> holdBackQueue = new LinkedList<TimeStampedMessage>();
-	private HashSet<String> receivedMulticast = new HashSet<String>();
-	private List<Rule> receiveRuleList;
-	private List<Rule> sendRuleList;
+	private ScheduledExecutorService groupTimer = null;
+	private Random random = new Random();
+	private RuleBook rules;
+	/*
+	 * Releases the messages of timed delay rules. Started on the first one.
+	 */
+	private HashedWheelTimer ruleTimer = null;
 	private List<Node> peerNodeList;
 	private List<Node> allNodeList;
-	private ServerSocket listenerSocket;
-	private Map<String, Socket> clientSocketPool = new HashMap<String, Socket>();
-	private Map<String, ObjectOutputStream> clientOutputPool = new HashMap<String, ObjectOutputStream>();
+	private SelectorTransport transport;
+	private MessageCodec codec;
+	private Map<String, OutboundConnection> connectionPool = new ConcurrentHashMap<String, OutboundConnection>();
+	private int sendQueueCapacity;
+	private SendQueuePolicy sendQueuePolicy;
+	private boolean useVectorDelta;
 	private boolean willTerminate = false;
 	private boolean useLogicalClock;
 	private Node localNode;
@@ -57,19 +94,47 @@ public class MessagePasser {
 	private String loggerIp = null;
 	private int loggerPort;
 	private ClockService clockService = null;
-	private TreeMap<String, VectorClock> clockServiceGroups = new TreeMap<String, VectorClock>();
+	/*
+	 * Groups this node is a member of. Each one is processed under its own
+	 * lock; point-to-point messages use pointToPointLock.
+	 */
+	private TreeMap<String, MulticastGroup> multicastGroups = new TreeMap<String, MulticastGroup>();
+	private final Object pointToPointLock = new Object();
 	private TreeMap<String, ArrayList<String>> groupMembers = null;
-	private int multicastSequenceNumber = 0; // First sequence number is 1
+	private TreeMap<String, Group> groups = null;
+
+	/*
+	 * Delivered messages for the application. Unbounded once the application
+	 * has consumed it; until then only the last DELIVERED_QUEUE_CAPACITY are
+	 * kept.
+	 */
+	private LinkedBlockingQueue<TimeStampedMessage> deliveredQueue = new LinkedBlockingQueue<TimeStampedMessage>();
+	private volatile boolean deliveredQueueConsumed = false;
+	private AtomicInteger discardedDeliveryCount = new AtomicInteger(0);
+	private List<DeliveryListener> deliveryListeners = new CopyOnWriteArrayList<DeliveryListener>();
+	private volatile ExecutorService listenerExecutor = null;
 
 	/*
-	 * Maekawa's algorithm for mutual exclusion
+	 * Mutual exclusion algorithm. Null if this node has no voting set.
+	 */
+	private AtomicInteger messagesReceivedCount = new AtomicInteger(0);
+	private AtomicInteger messagesSentCount = new AtomicInteger(0);
+	private MutualExclusion mutex = null;
+	/*
+	 * Acquisition of every lock that is WANTED or HELD, by lock name. Guarded
+	 * by the mutex lock.
+	 */
+	private Map<String, LockFuture> acquisitions = new HashMap<String, LockFuture>();
+	/*
+	 * Times out acquisitions. Started on the first timed acquire().
+	 */
+	private ScheduledExecutorService mutexTimer = null;
+	/*
+	 * Mutual exclusion messages waiting to be sent, by destination. Guarded
+	 * by the mutex lock.
 	 */
-	private int messagesReceivedCount;
-	private int messagesSentCount;
-	private MutualExclusionState meState = MutualExclusionState.RELEASED;
-	private boolean meVoted = false;
-	private Queue<TimeStampedMessage> requestQueue = new PriorityQueue<TimeStampedMessage>();
-	private Set<String> nodeRepliedSet = new HashSet<String>();
+	private Map<String, List<TimeStampedMessage>> pendingMutexMessages =
+			new LinkedHashMap<String, List<TimeStampedMessage>>();
 
 	public MessagePasser(String configurationFilename, String localName, boolean useLogicalClock)
 			throws FileNotFoundException {
@@ -81,33 +146,75 @@ public class MessagePasser {
 		parser = new ConfigFileParser(this.configurationFileName, this.localName);
 		this.peerNodeList = parser.getPeerNodes();
 		this.allNodeList = parser.getAllNodes();
-		this.receiveRuleList = parser.getReceiveRules();
-		this.sendRuleList = parser.getSendRules();
+		this.rules = new RuleBook(this.configurationFileName, this.localName, parser,
+				RuleBook.DEFAULT_CHECK_INTERVAL_MS);
 		this.loggerIp = parser.getLoggerIp();
 		this.loggerPort = parser.getLoggerPort();
 		this.localNode = parser.getLocalNode();
 		this.groupMembers = parser.getGroupMembers();
+		this.groups = parser.getGroups();
 		this.localNodeIndex = parser.getLocalNodeIndex();
+		this.codec = FrameCodec.forName(localNode.getCodec());
+		this.sendQueueCapacity = DEFAULT_SEND_QUEUE_CAPACITY;
+		if (localNode.getSendQueueCapacity() != null)
+			this.sendQueueCapacity = localNode.getSendQueueCapacity();
+		this.sendQueuePolicy = SendQueuePolicy.BLOCK;
+		if (localNode.getSendQueuePolicy() != null)
+			this.sendQueuePolicy = SendQueuePolicy.fromName(localNode.getSendQueuePolicy());
+		this.useVectorDelta = Boolean.TRUE.equals(localNode.getVectorDelta());
+		this.mutex = createMutex();
 
 		if (this.useLogicalClock) {
 			clockService = new LogicalClock();
 		} else {
 			clockService = new VectorClock(allNodeList.size(), localNodeIndex);
-			Iterator<String> iter = groupMembers.keySet().iterator();
-			while (iter.hasNext()) {
-				clockServiceGroups.put(iter.next(), new VectorClock(allNodeList.size(), localNodeIndex));
+			// One clock and hold-back queue per group this node belongs to
+			for (Group group : groups.values()) {
+				if (group.contains(localName))
+					multicastGroups.put(group.getName(), new MulticastGroup(group, localName));
 			}
 		}
 		try {
-			this.listenerSocket = new ServerSocket(this.localNode.getPort());
-			startListenerThread(); // setUp the initial connection
+			startTransport(); // setUp the initial connection
 			startMessageReceiverThread(); // create receive
+			startGroupTimer();
+			startLeaseTimer();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		printInfo();
 	}
 
+	/**
+	 * Create the mutual exclusion algorithm configured for this node
+	 * 
+	 * @return Null if the node has no voting set
+	 */
+	private MutualExclusion createMutex() {
+		String mutexType = localNode.getMutex() == null ? MutualExclusion.DEFAULT_NAME : localNode.getMutex().trim();
+		List<String> nodeNames = new ArrayList<String>(allNodeList.size());
+		for (Node node : allNodeList) {
+			nodeNames.add(node.getName());
+		}
+		if (mutexType.equals(RaymondMutex.NAME))
+			return new RaymondMutex(localName, nodeNames);
+		if (!mutexType.equals(MaekawaMutex.NAME))
+			throw new IllegalArgumentException("Unknown mutex '" + mutexType + "' for " + localName);
+
+		// Voting set: derived from the node list, or the first group of the
+		// node if it is configured with quorum: group
+		String quorumType = localNode.getQuorum() == null ? QuorumBuilder.GRID : localNode.getQuorum().trim();
+		int leaseMs = localNode.getLeaseMs() == null ? MaekawaMutex.DEFAULT_LEASE_MS : localNode.getLeaseMs();
+		if (quorumType.equals(QuorumBuilder.GROUP)) {
+			if (localNode.getMemberOf() == null || localNode.getMemberOf().isEmpty())
+				return null;
+			return new MaekawaMutex(localName, groupMembers.get(localNode.getMemberOf().get(0)), leaseMs);
+		}
+		if (!quorumType.equals(QuorumBuilder.GRID))
+			throw new IllegalArgumentException("Unknown quorum '" + quorumType + "' for " + localName);
+		return new MaekawaMutex(localName, QuorumBuilder.buildGridQuorum(nodeNames, localName), leaseMs);
+	}
+
 	/**
 	 * Print all MessagePasser's information
 	 */
@@ -119,6 +226,10 @@ public class MessagePasser {
 		System.out.println("Name = " + localName);
 		System.out.println("Node index = " + localNodeIndex);
 		System.out.println("Total nodes = " + allNodeList.size());
+		System.out.println("Wire codec = " + codec.getName() + (useVectorDelta ? " with vector deltas" : ""));
+		System.out.println("Send queue = " + sendQueueCapacity + " messages, " + sendQueuePolicy);
+		if (mutex != null)
+			System.out.println("Mutual exclusion = " + mutex.getName() + ", " + mutex.describe());
 
 		// List all groups and their members
 		Iterator<Entry<String, ArrayList<String>>> iter = groupMembers.entrySet().iterator();
@@ -135,10 +246,29 @@ public class MessagePasser {
 	}
 
 	public void printMutualExclusionStatus() {
-		System.out.println("# messages sent = " + messagesSentCount);
-		System.out.println("# messages received = " + messagesReceivedCount);
-		System.out.println("state = " + meState);
-		System.out.println("voted = " + meVoted);
+		System.out.println("# messages sent = " + messagesSentCount.get());
+		System.out.println("# messages received = " + messagesReceivedCount.get());
+		if (mutex == null)
+			return;
+		mutex.printCounters();
+		System.out.println("state = " + mutex.getState(MutualExclusion.DEFAULT_LOCK));
+		mutex.printStatus();
+	}
+
+	/**
+	 * @return State of the default lock. RELEASED if this node cannot use
+	 *         mutual exclusion.
+	 */
+	public MutualExclusionState getMutualExclusionState() {
+		return getMutualExclusionState(MutualExclusion.DEFAULT_LOCK);
+	}
+
+	/**
+	 * @param lockName
+	 * @return RELEASED if this node cannot use mutual exclusion
+	 */
+	public MutualExclusionState getMutualExclusionState(String lockName) {
+		return (mutex == null) ? MutualExclusionState.RELEASED : mutex.getState(lockName);
 	}
 
 	/**
@@ -146,10 +276,13 @@ public class MessagePasser {
 	 */
 	public void printTimeStamp() {
 		System.out.println(localName + " main time stamp: " + clockService.getTimeStamp());
-		Iterator<Entry<String, VectorClock>> iter = clockServiceGroups.entrySet().iterator();
-		while (iter.hasNext()) {
-			Entry<String, VectorClock> entry = iter.next();
-			System.out.println("\t" + entry.getKey() + ": " + entry.getValue());
+		for (MulticastGroup multicastGroup : multicastGroups.values()) {
+			int unstableCount;
+			synchronized (multicastGroup) {
+				unstableCount = multicastGroup.getHistory().size();
+			}
+			System.out.println("\t" + multicastGroup.getName() + ": " + multicastGroup.getClock() + " ("
+					+ unstableCount + " unstable messages kept)");
 		}
 	}
 
@@ -162,18 +295,89 @@ public class MessagePasser {
 	}
 
 	/**
-	 * Increment then return multicast sequence number
+	 * Increment then return the multicast sequence number of a group. Numbers
+	 * are contiguous per group so that receivers can track them with a
+	 * watermark.
 	 * 
-	 * @return
+	 * @param groupName
+	 * @return 0 if this node is not a member of the group
 	 */
-	public Integer getIncMulticastSequenceNumber() {
-		return ++multicastSequenceNumber;
+	public Integer getIncMulticastSequenceNumber(String groupName) {
+		MulticastGroup multicastGroup = multicastGroups.get(groupName);
+		return (multicastGroup == null) ? 0 : multicastGroup.nextMulticastSequenceNumber();
 	}
 
 	public boolean isUsingLogicalClock() {
 		return useLogicalClock;
 	}
 
+	/**
+	 * Wait for the next delivered message
+	 * 
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public TimeStampedMessage receive() throws InterruptedException {
+		deliveredQueueConsumed = true;
+		return deliveredQueue.take();
+	}
+
+	/**
+	 * Wait up to a timeout for the next delivered message
+	 * 
+	 * @param timeout
+	 * @param unit
+	 * @return Null if nothing was delivered in time
+	 * @throws InterruptedException
+	 */
+	public TimeStampedMessage receive(long timeout, TimeUnit unit) throws InterruptedException {
+		deliveredQueueConsumed = true;
+		return deliveredQueue.poll(timeout, unit);
+	}
+
+	/**
+	 * Move delivered messages into a collection without waiting
+	 * 
+	 * @param collection
+	 * @param maxMessages
+	 * @return Number of messages moved
+	 */
+	public int drainTo(Collection<? super TimeStampedMessage> collection, int maxMessages) {
+		deliveredQueueConsumed = true;
+		return deliveredQueue.drainTo(collection, maxMessages);
+	}
+
+	/**
+	 * @return Number of delivered messages discarded before the application
+	 *         started to consume them
+	 */
+	public int getDiscardedDeliveryCount() {
+		return discardedDeliveryCount.get();
+	}
+
+	/**
+	 * Register a listener that is called for every delivered message. All
+	 * listeners run on one dedicated thread, in delivery order.
+	 * 
+	 * @param listener
+	 */
+	public synchronized void addDeliveryListener(DeliveryListener listener) {
+		if (listenerExecutor == null) {
+			listenerExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "deliveryListener");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		deliveryListeners.add(listener);
+	}
+
+	public void removeDeliveryListener(DeliveryListener listener) {
+		deliveryListeners.remove(listener);
+	}
+
 	/**
 	 * Log a message by sending it to the logger, without incrementing time
 	 * stamp
@@ -220,55 +424,57 @@ public class MessagePasser {
 	}
 
 	/**
-	 * Multicast a message to multiple recipients
+	 * Multicast a message to a group
 	 * 
-	 * @param destinationNodeNames
+	 * The message is sent to the first hops of the group's dissemination
+	 * strategy, which pass it on to the rest of the group.
+	 * 
+	 * @param groupName
 	 * @param message
 	 * @param includeSelf
-	 *            False if don't need to multicast to itself
-	 * @throws IOException
+	 *            False if don't need to deliver it to itself
 	 */
 	public void multicast(String groupName, TimeStampedMessage message, boolean includeSelf) {
 		if (!(clockService instanceof VectorClock)) {
 			System.out.println("Please use vector clock to use multicast feature.");
 			return;
 		}
-		List<String> destinationNodeNames = groupMembers.get(groupName);
-		VectorClock groupClock = clockServiceGroups.get(groupName);
+		MulticastGroup multicastGroup = multicastGroups.get(groupName);
+		if (multicastGroup == null) {
+			System.out.println("Couldn't multicast. " + localName + " is not a member of " + groupName + ".");
+			return;
+		}
 
-		// Increment sequence number
-		sequenceNumber.incrementAndGet();
-		if (includeSelf) {
-			// Increment timestamp
-			groupClock.incrementAndGetTimeStamp();
-//			printTimeStamp();
+		// Messages from the application may come without a multicast header
+		if (message.getMulticasterName() == null) {
+			message.setSource(localName);
+			message.setMulticastMessageBody(groupName, multicastGroup.nextMulticastSequenceNumber());
 		}
 
-		/*
-		 * Multicast to the target group by sequentially send messages to
-		 * everyone in the list (with same message sequence number)
-		 */
-		// CO-deliver itself
-		if (includeSelf) {
-			TimeStampedMessage newMessage = new TimeStampedMessage(message);
-			newMessage.setKind("multicast");
-			newMessage.setSource(localName);
-			newMessage.setSequenceNumber(sequenceNumber.get());
-			newMessage.setDestination(localName);
-			newMessage.setTimeStamp(groupClock.getTimeStamp());
-			handleReceiveMulticastMessage(newMessage);
-		}
-		// Multicast to other nodes than itself
-		for (String nodeName : destinationNodeNames) {
-			if (!nodeName.equals(localName)) {
-				TimeStampedMessage newMessage = new TimeStampedMessage(message);
-				newMessage.setKind("multicast");
-				newMessage.setSource(localName);
-				newMessage.setSequenceNumber(sequenceNumber.get());
-				newMessage.setDestination(nodeName);
-				newMessage.setTimeStamp(groupClock.getTimeStamp());
-				send(newMessage, getNodeIndex(nodeName), true);
+		TimeStampedMessage newMessage = new TimeStampedMessage(message);
+		newMessage.setKind("multicast");
+		newMessage.setSource(localName);
+		// Hold the send lock so that multicasts leave in time stamp order, but
+		// send outside the group lock: waiting for a full send queue must not
+		// hold up the event loops receiving for the group
+		synchronized (multicastGroup.getSendLock()) {
+			List<String> targets;
+			synchronized (multicastGroup) {
+				// Increment sequence number and timestamp
+				newMessage.setSequenceNumber(sequenceNumber.incrementAndGet());
+				newMessage.setTimeStamp(multicastGroup.getClock().incrementAndGetTimeStamp());
+
+				// CO-deliver itself
+				if (includeSelf) {
+					TimeStampedMessage selfMessage = new TimeStampedMessage(newMessage);
+					selfMessage.setDestination(localName);
+					handleReceiveMulticastMessage(multicastGroup, selfMessage);
+				}
+				targets = multicastGroup.getDisseminationStrategy().getTargets(multicastGroup.getGroup(), localName,
+						localName, localName);
 			}
+			// Send to the other nodes (with same message sequence number)
+			sendToMembers(newMessage, targets);
 		}
 		// Print a command line if it is called from CO-multicast
 		if (!includeSelf) {
@@ -276,6 +482,21 @@ public class MessagePasser {
 		}
 	}
 
+	/**
+	 * Send a copy of a multicast message to each of the given members, keeping
+	 * its time stamp
+	 * 
+	 * @param message
+	 * @param nodeNames
+	 */
+	private void sendToMembers(TimeStampedMessage message, List<String> nodeNames) {
+		for (String nodeName : nodeNames) {
+			TimeStampedMessage newMessage = new TimeStampedMessage(message);
+			newMessage.setDestination(nodeName);
+			send(newMessage, getNodeIndex(nodeName), true);
+		}
+	}
+
 	/**
 	 * Send a message to destination
 	 * 
@@ -298,23 +519,9 @@ public class MessagePasser {
 		}
 
 		// Get a connection
-		ObjectOutputStream ot;
-		Socket socket;
-		try {
-			if (clientOutputPool.containsKey(message.getDestination())) {
-				ot = clientOutputPool.get(message.getDestination());
-			} else {
-				socket = new Socket(peerNodeList.get(targetNodeIndex).getIp(), peerNodeList.get(targetNodeIndex)
-						.getPort().intValue());
-				ot = new ObjectOutputStream(socket.getOutputStream());
-				clientSocketPool.put(message.getDestination(), socket);
-				clientOutputPool.put(message.getDestination(), ot);
-				System.out.println("Connected to " + message.getDestination());
-			}
-		} catch (Exception e) {
-			System.out.println("Couldn't connect to " + message.getDestination() + " | " + e);
+		OutboundConnection connection = getConnection(message.getDestination());
+		if (connection == null)
 			return;
-		}
 
 		// If this is an ordinary message, increase and get sequence number
 		// Then assign it to the message
@@ -341,6 +548,21 @@ public class MessagePasser {
 				 */
 				System.out.println("Message duplicated at the sender");
 				willDuplicate = true;
+			} else if (action.equals("delay") && matchedRule.isTimed()) {
+				/*
+				 * Timed delay: send this message when the delay is over
+				 */
+				long delayMs = matchedRule.nextDelayMs(random);
+				System.out.println("Message delayed at the sender by " + delayMs + " ms");
+				final TimeStampedMessage delayedMessage = new TimeStampedMessage(message);
+				scheduleRelease(new Runnable() {
+					public void run() {
+						OutboundConnection delayedConnection = getConnection(delayedMessage.getDestination());
+						if (delayedConnection != null)
+							enqueue(delayedConnection, delayedMessage);
+					}
+				}, delayMs);
+				return;
 			} else if (action.equals("delay")) {
 				/*
 				 * Delay: defer this message and leave
@@ -352,24 +574,14 @@ public class MessagePasser {
 		}
 
 		/*
-		 * Send the message and its duplicate if needed
+		 * Queue the message and its duplicate if needed
 		 */
-		try {
-			ot.writeObject(message);
-			ot.flush();
-			messagesSentCount++;
-			if (willDuplicate) {
-				TimeStampedMessage newMessage = new TimeStampedMessage(message);
-				newMessage.setIsDuplicate(true);
-				ot.writeObject(newMessage);
-				ot.flush();
-				messagesSentCount++;
-			}
-		} catch (Exception e) {
-			// Remove socket and outputStream from pools if they are broken
-			clientSocketPool.remove(message.getDestination());
-			clientOutputPool.remove(message.getDestination());
-			System.out.println("Couldn't send a message to " + message.getDestination() + " | " + e);
+		if (!enqueue(connection, message))
+			return;
+		if (willDuplicate) {
+			TimeStampedMessage newMessage = new TimeStampedMessage(message);
+			newMessage.setIsDuplicate(true);
+			enqueue(connection, newMessage);
 		}
 
 		/*
@@ -377,59 +589,181 @@ public class MessagePasser {
 		 */
 		while (!sendDelayedBuffer.isEmpty()) {
 			TimeStampedMessage delayedMessage = new TimeStampedMessage(sendDelayedBuffer.poll());
-			String destinationIp = null;
-			int destinationPort = 0;
-			for (Node node : peerNodeList) {
-				if (node.getName().equals(delayedMessage.getDestination())) {
-					destinationIp = node.getIp();
-					destinationPort = node.getPort();
-					break;
-				}
-			}
-			if (destinationIp == null) {
-				System.out.println("Invalid destination");
+			OutboundConnection delayedConnection = getConnection(delayedMessage.getDestination());
+			if (delayedConnection == null)
 				return;
+			enqueue(delayedConnection, delayedMessage);
+		}
+	}
+
+	/**
+	 * Get the outbound connection to a node, opening a new one if there is no
+	 * usable connection yet
+	 * 
+	 * @param destination
+	 *            Name of the node
+	 * @return Null if the connection couldn't be opened
+	 */
+	private OutboundConnection getConnection(String destination) {
+		OutboundConnection connection = connectionPool.get(destination);
+		if (connection != null && !connection.isClosed())
+			return connection;
+		synchronized (connectionPool) {
+			connection = connectionPool.get(destination);
+			if (connection != null && !connection.isClosed())
+				return connection;
+			Integer processIndex = getProcessIndex(destination);
+			if (processIndex == null) {
+				System.out.println("Invalid destination");
+				return null;
 			}
+			Node node = allNodeList.get(processIndex);
 			try {
-				if (clientOutputPool.containsKey(delayedMessage.getDestination())) {
-					ot = clientOutputPool.get(delayedMessage.getDestination());
-				} else {
-					socket = new Socket(destinationIp, destinationPort);
-					ot = new ObjectOutputStream(socket.getOutputStream());
-					clientSocketPool.put(delayedMessage.getDestination(), socket);
-					clientOutputPool.put(delayedMessage.getDestination(), ot);
-					System.out.println("Connect to " + delayedMessage.getDestination() + " is established");
-				}
-				ot.writeObject(delayedMessage);
-				ot.flush();
-				messagesSentCount++;
-			} catch (Exception e) {
-				System.out.println("Couldn't send a delayed message to " + delayedMessage.getDestination() + " | " + e);
-				return;
+				connection = transport.connect(destination, node.getIp(), node.getPort(), codec, sendQueueCapacity,
+						sendQueuePolicy, useVectorDelta);
+			} catch (IOException e) {
+				System.out.println("Couldn't connect to " + destination + " | " + e);
+				return null;
 			}
+			connectionPool.put(destination, connection);
+			return connection;
+		}
+	}
+
+	/**
+	 * Queue a message on an outbound connection
+	 * 
+	 * @param connection
+	 * @param message
+	 * @return False if the send queue rejected the message
+	 */
+	private boolean enqueue(OutboundConnection connection, TimeStampedMessage message) {
+		if (!connection.enqueue(message, !holdsNodeLock())) {
+			System.out.println("Couldn't send a message to " + message.getDestination() + " | send queue is "
+					+ (connection.isClosed() ? "closed" : "full"));
+			return false;
+		}
+		messagesSentCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * @return True if the current thread holds a lock that event loops may
+	 *         need to handle received messages, and so must not wait for a
+	 *         full send queue
+	 */
+	private boolean holdsNodeLock() {
+		if (Thread.holdsLock(pointToPointLock) || (mutex != null && Thread.holdsLock(mutex)))
+			return true;
+		for (MulticastGroup multicastGroup : multicastGroups.values()) {
+			if (Thread.holdsLock(multicastGroup))
+				return true;
 		}
+		return false;
 	}
 
 	/**
 	 * Mutual exclusion: Request to enter critical section
 	 */
 	public void request() {
-		switch (meState) {
-		case WANTED:
-			System.out.println("Error: You have another pending request.");
-			return;
-		case HELD:
-			System.out.println("Error: You are holding the critical section!");
+		request(MutualExclusion.DEFAULT_LOCK);
+	}
+
+	/**
+	 * Mutual exclusion: Request a named lock. Locks are independent of each
+	 * other.
+	 * 
+	 * @param lockName
+	 */
+	public void request(String lockName) {
+		request(lockName, false);
+	}
+
+	/**
+	 * Mutual exclusion: Request a named lock, shared or exclusively. Shared
+	 * holders of a lock hold it together, an exclusive holder alone.
+	 * 
+	 * @param lockName
+	 * @param shared
+	 */
+	public void request(String lockName, boolean shared) {
+		if (mutex == null) {
+			System.out.println("Error: " + localName + " has no quorum.");
 			return;
-		case RELEASED:
-			meState = MutualExclusionState.WANTED;
-			nodeRepliedSet.clear();
-			printMutualExclusionStatus();
-			TimeStampedMessage requestMessage = new TimeStampedMessage();
-			requestMessage.setSource(localName);
-			requestMessage.setMeCommand(MutualExclusionCommand.REQUEST);
-			requestMessage.setMulticastMessageBody(localNode.getMemberOf().get(0), getIncMulticastSequenceNumber());
-			multicast(localNode.getMemberOf().get(0), requestMessage, true);
+		}
+		synchronized (mutex) {
+			switch (mutex.getState(lockName)) {
+			case WANTED:
+				System.out.println("Error: You have another pending request for " + lockName + ".");
+				return;
+			case HELD:
+			case HELD_SHARED:
+				System.out.println("Error: You are holding " + lockName + "!");
+				return;
+			default:
+				acquire(lockName, shared, 0, TimeUnit.MILLISECONDS);
+			}
+		}
+		printMutualExclusionStatus();
+	}
+
+	/**
+	 * Mutual exclusion: Acquire a named lock without waiting for it. The future
+	 * completes on the thread that receives the last message needed, as soon as
+	 * it is received.
+	 * 
+	 * @param lockName
+	 * @param timeout
+	 *            How long to wait before withdrawing the request, 0 for ever
+	 * @param unit
+	 * @return Completes with the handle to release the lock with. Fails at once
+	 *         if the lock is already WANTED or HELD here, or if this node cannot
+	 *         use mutual exclusion.
+	 */
+	public LockFuture acquire(String lockName, long timeout, TimeUnit unit) {
+		return acquire(lockName, false, timeout, unit);
+	}
+
+	/**
+	 * Mutual exclusion: Acquire a named lock, shared or exclusively, without
+	 * waiting for it
+	 * 
+	 * @param lockName
+	 * @param shared
+	 *            True to hold the lock together with other shared holders
+	 * @param timeout
+	 *            How long to wait before withdrawing the request, 0 for ever
+	 * @param unit
+	 * @return See acquire(String, long, TimeUnit)
+	 */
+	public LockFuture acquire(final String lockName, boolean shared, long timeout, TimeUnit unit) {
+		if (mutex == null)
+			return LockFuture.failed(lockName, new IllegalStateException(localName + " has no quorum"));
+		synchronized (mutex) {
+			if (mutex.getState(lockName) != MutualExclusionState.RELEASED)
+				return LockFuture.failed(lockName, new IllegalStateException("State of lock " + lockName + " is "
+						+ mutex.getState(lockName)));
+			final LockHandle handle = new LockHandle(lockName, shared);
+			final LockFuture future = new LockFuture(handle, new Runnable() {
+				public void run() {
+					withdraw(lockName, handle);
+				}
+			});
+			acquisitions.put(lockName, future);
+			List<TimeStampedMessage> outbox = new ArrayList<TimeStampedMessage>();
+			List<String> enteredLocks = new ArrayList<String>(1);
+			if (mutex.request(lockName, shared, outbox))
+				enteredLocks.add(lockName);
+			sendMutexMessages(outbox, enteredLocks);
+			completeAcquisitions(enteredLocks);
+			flushMutexMessages();
+			if (timeout > 0 && !future.isDone())
+				getMutexTimer().schedule(new Runnable() {
+					public void run() {
+						timeOut(lockName, future);
+					}
+				}, timeout, unit);
+			return future;
 		}
 	}
 
@@ -437,93 +771,322 @@ public class MessagePasser {
 	 * Mutual exclusion: Release
 	 */
 	public void release() {
-		switch (meState) {
-		case RELEASED:
-		case WANTED:
-			System.out.println("Error: You are not holding the critical section.");
+		release(MutualExclusion.DEFAULT_LOCK);
+	}
+
+	/**
+	 * Mutual exclusion: Release a named lock
+	 * 
+	 * @param lockName
+	 */
+	public void release(String lockName) {
+		if (mutex == null) {
+			System.out.println("Error: You are not holding " + lockName + ".");
 			return;
-		case HELD:
-			meState = MutualExclusionState.RELEASED;
-			TimeStampedMessage releaseMessage = new TimeStampedMessage();
-			releaseMessage.setSource(localName);
-			releaseMessage.setMeCommand(MutualExclusionCommand.RELEASE);
-			releaseMessage.setMulticastMessageBody(localNode.getMemberOf().get(0), getIncMulticastSequenceNumber());
-			multicast(localNode.getMemberOf().get(0), releaseMessage, true);
-		}
-	}
-
-	/**
-	 * Deliver a message from the receiveBuffer to the screen
-	 */
-	private void receive() {
-		if (!receiveBuffer.isEmpty()) {
-			messagesReceivedCount++;
-			TimeStampedMessage message = receiveBuffer.poll();
-			System.out.println("\n\nDelivered message from " + message.getSource());
-			System.out.println(message);
-
-			if (message.getMeCommand() != null) {
-				switch (message.getMeCommand()) {
-				case REQUEST:
-					/*
-					 * Received REQUEST
-					 */
-					if (meState == MutualExclusionState.HELD || meVoted) {
-						requestQueue.add(message);
-					} else {
-						// Send reply to Pi
-						String requester = message.getMulticasterName();
-						if (requester.equals(localName)) {
-							// Pi is self
-							TimeStampedMessage selfReplyMessage = new TimeStampedMessage(message);
-							selfReplyMessage.setMeCommand(MutualExclusionCommand.REPLY);
-							receiveBuffer.add(selfReplyMessage);
-						} else {
-							// Pi is other
-							TimeStampedMessage replyMessage = new TimeStampedMessage(message.getMulticasterName(), "REPLY", "REPLY");
-							replyMessage.setMeCommand(MutualExclusionCommand.REPLY);
-							send(replyMessage, getNodeIndex(message.getMulticasterName()), false);
-						}
-						meVoted = true;
-					}
-					break;
-				case RELEASE:
-					/*
-					 * Received RELEASE
-					 */
-					if (!requestQueue.isEmpty()) {
-						TimeStampedMessage requestMessage = requestQueue.poll();
-						String requester = requestMessage.getMulticasterName();
-						// Send reply to Pk
-						if (requester.equals(localName)) {
-							// Pk is self
-							TimeStampedMessage selfReplyMessage = new TimeStampedMessage(message);
-							selfReplyMessage.setMeCommand(MutualExclusionCommand.REPLY);
-							receiveBuffer.add(selfReplyMessage);
-						} else {
-							// Pk is other
-							TimeStampedMessage replyMessage = new TimeStampedMessage(requester, "REPLY", "REPLY");
-							replyMessage.setMeCommand(MutualExclusionCommand.REPLY);
-							send(replyMessage, getNodeIndex(requester), false);
-						}
-						meVoted = true;
-					} else {
-						meVoted = false;
-					}
-					break;
-				case REPLY:
-					/*
-					 * Received REPLY
-					 */
-					nodeRepliedSet.add(message.getSource());
-					if (nodeRepliedSet.size() == groupMembers.get(localNode.getMemberOf().get(0)).size()) {
-						meState = MutualExclusionState.HELD;
-						printMutualExclusionStatus();
-					}
+		}
+		synchronized (mutex) {
+			LockFuture future = acquisitions.get(lockName);
+			if (!mutex.getState(lockName).isHeld() || future == null) {
+				System.out.println("Error: You are not holding " + lockName + ".");
+				return;
+			}
+			release(future.getHandle());
+		}
+	}
+
+	/**
+	 * Mutual exclusion: Release a lock acquired with acquire(). Nothing is
+	 * left to release if the lease of the handle has expired.
+	 * 
+	 * @param handle
+	 * @throws IllegalStateException
+	 *             If the handle does not hold its lock
+	 */
+	public void release(LockHandle handle) {
+		if (mutex == null)
+			throw new IllegalStateException(localName + " has no quorum");
+		String lockName = handle.getLockName();
+		synchronized (mutex) {
+			if (handle.isExpired())
+				return;
+			LockFuture future = acquisitions.get(lockName);
+			if (future == null || future.getHandle() != handle || !mutex.getState(lockName).isHeld())
+				throw new IllegalStateException("Lock " + lockName + " is not held by " + handle);
+			acquisitions.remove(lockName);
+			handle.markReleased();
+			List<TimeStampedMessage> outbox = new ArrayList<TimeStampedMessage>();
+			mutex.release(lockName, outbox);
+			List<String> enteredLocks = new ArrayList<String>(0);
+			sendMutexMessages(outbox, enteredLocks);
+			completeAcquisitions(enteredLocks);
+			flushMutexMessages();
+		}
+		mutex.countRelease(handle);
+	}
+
+	/**
+	 * Withdraw the request of a cancelled or timed out acquisition, unless it
+	 * is over already
+	 * 
+	 * @param lockName
+	 * @param handle
+	 */
+	private void withdraw(String lockName, LockHandle handle) {
+		synchronized (mutex) {
+			LockFuture future = acquisitions.get(lockName);
+			if (future == null || future.getHandle() != handle)
+				return;
+			acquisitions.remove(lockName);
+			List<TimeStampedMessage> outbox = new ArrayList<TimeStampedMessage>();
+			if (!mutex.cancel(lockName, outbox))
+				return;
+			List<String> enteredLocks = new ArrayList<String>(0);
+			sendMutexMessages(outbox, enteredLocks);
+			completeAcquisitions(enteredLocks);
+			flushMutexMessages();
+		}
+	}
+
+	private void timeOut(String lockName, LockFuture future) {
+		synchronized (mutex) {
+			if (!future.fail(new TimeoutException("Lock " + lockName + " not acquired in time")))
+				return;
+			withdraw(lockName, future.getHandle());
+		}
+		mutex.countTimeout();
+		System.out.println("Request for " + lockName + " timed out");
+	}
+
+	/**
+	 * Complete the acquisitions of locks that have just been acquired. A lock
+	 * whose acquisition has been cancelled meanwhile is released again. The
+	 * caller holds the mutex lock.
+	 * 
+	 * @param enteredLocks
+	 */
+	private void completeAcquisitions(List<String> enteredLocks) {
+		for (String lockName : enteredLocks) {
+			LockFuture future = acquisitions.get(lockName);
+			if (future != null && future.complete(mutex.getFencingToken(lockName))) {
+				mutex.countEntry(future.getHandle());
+				continue;
+			}
+			acquisitions.remove(lockName);
+			List<TimeStampedMessage> outbox = new ArrayList<TimeStampedMessage>();
+			mutex.release(lockName, outbox);
+			List<String> reentered = new ArrayList<String>(0);
+			sendMutexMessages(outbox, reentered);
+			completeAcquisitions(reentered);
+		}
+	}
+
+	/**
+	 * Expire and renew mutual exclusion leases four times per lease
+	 */
+	private void startLeaseTimer() {
+		if (mutex == null || mutex.getLeaseMillis() == 0)
+			return;
+		long interval = mutex.getLeaseMillis() / 4;
+		getMutexTimer().scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					checkLeases();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
 				}
 			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
 
-			System.out.print(commandPrompt);
+	private void checkLeases() {
+		List<String> lostLocks = new ArrayList<String>(0);
+		synchronized (mutex) {
+			List<TimeStampedMessage> outbox = new ArrayList<TimeStampedMessage>();
+			mutex.tick(outbox, lostLocks);
+			for (String lockName : lostLocks) {
+				LockFuture future = acquisitions.remove(lockName);
+				if (future != null)
+					future.getHandle().markExpired();
+				mutex.countExpiry();
+			}
+			List<String> enteredLocks = new ArrayList<String>(0);
+			sendMutexMessages(outbox, enteredLocks);
+			completeAcquisitions(enteredLocks);
+			flushMutexMessages();
+		}
+		for (String lockName : lostLocks) {
+			System.out.println("Lease on " + lockName + " expired");
+		}
+	}
+
+	private synchronized ScheduledExecutorService getMutexTimer() {
+		if (mutexTimer == null)
+			mutexTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "mutexTimer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		return mutexTimer;
+	}
+
+	private synchronized HashedWheelTimer getRuleTimer() {
+		if (ruleTimer == null)
+			ruleTimer = new HashedWheelTimer("ruleTimer", RULE_TIMER_TICK_MS, TimeUnit.MILLISECONDS,
+					RULE_TIMER_TICKS);
+		return ruleTimer;
+	}
+
+	/**
+	 * Release a message of a timed rule when its delay is over. The release
+	 * runs on an event loop, where a full send queue never waits, rather than
+	 * on the single timer thread, where one slow peer would hold up every
+	 * other pending release.
+	 * 
+	 * @param release
+	 * @param delayMs
+	 */
+	private void scheduleRelease(final Runnable release, long delayMs) {
+		getRuleTimer().schedule(new Runnable() {
+			public void run() {
+				transport.execute(release);
+			}
+		}, delayMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Deliver a message taken from the receiveBuffer to the screen and to the
+	 * application
+	 * 
+	 * @param message
+	 */
+	private void deliver(TimeStampedMessage message) {
+		messagesReceivedCount.incrementAndGet();
+		System.out.println("\n\nDelivered message from " + message.getSource());
+		System.out.println(message);
+
+		if (message.getMeCommand() != null && mutex != null)
+			handleMutexMessage(message);
+
+		publish(message);
+	}
+
+	/**
+	 * Run a mutual exclusion message, or each message of a batch, through the
+	 * mutex. What it answers is sent by the next flushMutexMessages().
+	 * 
+	 * @param message
+	 */
+	private void handleMutexMessage(TimeStampedMessage message) {
+		mutex.countReceived();
+		TimeStampedMessage[] messages = { message };
+		if (message.getMeCommand() == MutualExclusionCommand.BATCH && message.getData() instanceof TimeStampedMessage[])
+			messages = (TimeStampedMessage[]) message.getData();
+		List<String> enteredLocks = new ArrayList<String>(0);
+		synchronized (mutex) {
+			for (TimeStampedMessage mutexMessage : messages) {
+				countAcquisitionMessage(mutexMessage);
+				List<TimeStampedMessage> outbox = new ArrayList<TimeStampedMessage>();
+				if (mutex.onMessage(mutexMessage, outbox))
+					enteredLocks.add(MutualExclusion.getLockName(mutexMessage));
+				sendMutexMessages(outbox, enteredLocks);
+			}
+			completeAcquisitions(enteredLocks);
+		}
+		if (!enteredLocks.isEmpty())
+			printMutualExclusionStatus();
+	}
+
+	/**
+	 * Queue the messages of the mutex for sending. Those addressed to the local
+	 * node are handled right away and may add more. The caller holds the mutex
+	 * lock, so messages leave in the order the mutex produced them whichever
+	 * thread produced them.
+	 * 
+	 * @param outbox
+	 * @param enteredLocks
+	 *            Receives the locks the local node has acquired
+	 */
+	private void sendMutexMessages(List<TimeStampedMessage> outbox, List<String> enteredLocks) {
+		for (int i = 0; i < outbox.size(); i++) {
+			TimeStampedMessage mutexMessage = outbox.get(i);
+			String destination = mutexMessage.getDestination();
+			if (destination.equals(localName)) {
+				if (mutex.onMessage(mutexMessage, outbox))
+					enteredLocks.add(MutualExclusion.getLockName(mutexMessage));
+				continue;
+			}
+			countAcquisitionMessage(mutexMessage);
+			List<TimeStampedMessage> pending = pendingMutexMessages.get(destination);
+			if (pending == null) {
+				pending = new ArrayList<TimeStampedMessage>(2);
+				pendingMutexMessages.put(destination, pending);
+			}
+			pending.add(mutexMessage);
+		}
+	}
+
+	/**
+	 * Charge a mutual exclusion message to the acquisition of its lock, if
+	 * any. The caller holds the mutex lock.
+	 * 
+	 * @param mutexMessage
+	 */
+	private void countAcquisitionMessage(TimeStampedMessage mutexMessage) {
+		LockFuture future = acquisitions.get(MutualExclusion.getLockName(mutexMessage));
+		if (future != null)
+			future.getHandle().countMessage();
+	}
+
+	/**
+	 * Send the queued mutual exclusion messages. Several messages for the same
+	 * node, usually about different locks, travel as one BATCH.
+	 */
+	private void flushMutexMessages() {
+		synchronized (mutex) {
+			for (Entry<String, List<TimeStampedMessage>> entry : pendingMutexMessages.entrySet()) {
+				List<TimeStampedMessage> pending = entry.getValue();
+				TimeStampedMessage mutexMessage = pending.get(0);
+				if (pending.size() > 1) {
+					mutexMessage = new TimeStampedMessage(entry.getKey(), MutualExclusionCommand.BATCH.name(),
+							pending.toArray(new TimeStampedMessage[pending.size()]));
+					mutexMessage.setMeCommand(MutualExclusionCommand.BATCH);
+				}
+				send(mutexMessage, getNodeIndex(entry.getKey()), false);
+				mutex.countSent();
+			}
+			pendingMutexMessages.clear();
+		}
+	}
+
+	/**
+	 * Hand a delivered message to the application: queue it for receive() and
+	 * notify the listeners. Until the application first consumes the queue,
+	 * as on the console, the oldest messages are discarded and counted.
+	 * 
+	 * @param message
+	 */
+	private void publish(final TimeStampedMessage message) {
+		deliveredQueue.add(message);
+		while (!deliveredQueueConsumed && deliveredQueue.size() > DELIVERED_QUEUE_CAPACITY
+				&& deliveredQueue.poll() != null) {
+			int discarded = discardedDeliveryCount.incrementAndGet();
+			if (discarded == 1 || discarded % DELIVERED_QUEUE_CAPACITY == 0)
+				System.out.println("\nDiscarded " + discarded + " delivered message(s) nobody received");
+		}
+		if (!deliveryListeners.isEmpty()) {
+			listenerExecutor.execute(new Runnable() {
+				public void run() {
+					for (DeliveryListener listener : deliveryListeners) {
+						try {
+							listener.onDelivery(message);
+						} catch (RuntimeException e) {
+							e.printStackTrace();
+						}
+					}
+				}
+			});
 		}
 	}
 
@@ -561,173 +1124,405 @@ public class MessagePasser {
 	}
 
 	/**
-	 * Start a thread that monitors for incoming data from a MessagePasser
-	 * Sophisticated algorithms are around here in order to decide which
-	 * messages to deliver
+	 * Handle a message read from a peer channel by the transport. Sophisticated
+	 * algorithms are around here in order to decide which messages to deliver
 	 * 
-	 * @param socket
-	 * @throws IOException
+	 * Called from event loop threads.
+	 * 
+	 * @param message
 	 */
-	private void startClientThread(final Socket socket) throws IOException {
-		new Thread(new Runnable() {
-			public void run() {
-				try {
-					ObjectInputStream is = new ObjectInputStream(socket.getInputStream());
-					boolean mustDuplicate = false;
-					while (true) {
-						TimeStampedMessage message = (TimeStampedMessage) is.readObject();
-						if (message == null)
-							continue;
-
-						Rule rule = checkReceiveRule(message);
-						if (rule != null) {
-							String action = new String(rule.getAction());
-							if (action.equals("drop")) {
-								/*
-								 * Drop: drop the message and leave
-								 */
-								System.out.println("Message dropped at the receiver");
-								System.out.print(commandPrompt);
-								continue;
-							}
-							if (action.equals("duplicate")) {
-								/*
-								 * Duplicate: will duplicate the received
-								 * message and deliver all delayed received
-								 * messages
-								 */
-								mustDuplicate = true;
-								System.out.println("Message duplicated at the receiver");
-								System.out.print(commandPrompt);
-							}
-							if (action.equals("delay")) {
-								/*
-								 * Delay: put this in receive buffer then leave
-								 */
-								System.out.println("Message delayed at the receiver");
-								System.out.print(commandPrompt);
-								receiveDelayedBuffer.add(new TimeStampedMessage(message));
-								continue;
-							}
-						}
-
-						if (message.getKind().equals("multicast")) {
-							handleReceiveMulticastMessage(message);
-						} else {
-							handleReceiveNormalMessage(message, mustDuplicate);
-						}
-					}
-				} catch (Exception e) {
-					return;
-				} finally {
-					try {
-						socket.close();
-					} catch (IOException e) {
+	private void handleIncomingMessage(TimeStampedMessage message) {
+		boolean mustDuplicate = false;
+		Rule rule = checkReceiveRule(message);
+		if (rule != null) {
+			String action = new String(rule.getAction());
+			if (action.equals("drop")) {
+				/*
+				 * Drop: drop the message and leave
+				 */
+				System.out.println("Message dropped at the receiver");
+				System.out.print(commandPrompt);
+				return;
+			}
+			if (action.equals("duplicate")) {
+				/*
+				 * Duplicate: will duplicate the received message and deliver
+				 * all delayed received messages
+				 */
+				mustDuplicate = true;
+				System.out.println("Message duplicated at the receiver");
+				System.out.print(commandPrompt);
+			}
+			if (action.equals("delay") && rule.isTimed()) {
+				/*
+				 * Timed delay: deliver this message when the delay is over
+				 */
+				long delayMs = rule.nextDelayMs(random);
+				System.out.println("Message delayed at the receiver by " + delayMs + " ms");
+				System.out.print(commandPrompt);
+				final TimeStampedMessage delayedMessage = new TimeStampedMessage(message);
+				scheduleRelease(new Runnable() {
+					public void run() {
+						dispatch(delayedMessage, false);
 					}
+				}, delayMs);
+				return;
+			}
+			if (action.equals("delay")) {
+				/*
+				 * Delay: put this in receive buffer then leave
+				 */
+				System.out.println("Message delayed at the receiver");
+				System.out.print(commandPrompt);
+				receiveDelayedBuffer.add(new TimeStampedMessage(message));
+				return;
+			}
+		}
+
+		dispatch(message, mustDuplicate);
+
+		// Process messages in receiveDelayedBuffer
+		TimeStampedMessage delayedMessage;
+		while ((delayedMessage = receiveDelayedBuffer.poll()) != null) {
+			dispatch(delayedMessage, false);
+		}
+	}
+
+	/**
+	 * Pass a received message to the handler of its group, or to the
+	 * point-to-point handler
+	 * 
+	 * @param message
+	 * @param mustDuplicate
+	 */
+	private void dispatch(TimeStampedMessage message, boolean mustDuplicate) {
+		String kind = message.getKind();
+		if (kind.equals("multicast") || kind.equals("digest") || kind.equals("nack")
+				|| TotalOrdering.isControlKind(kind)) {
+			String groupName = message.getMulticastGroupName();
+			MulticastGroup multicastGroup = (groupName == null) ? null : multicastGroups.get(groupName);
+			if (multicastGroup == null) {
+				System.out.println("\nIgnored a " + kind + " message of " + groupName + " which " + localName
+						+ " is not a member of");
+				return;
+			}
+			synchronized (multicastGroup) {
+				multicastGroup.markHeardFrom(message.getSource());
+				if (kind.equals("multicast")) {
+					handleReceiveMulticastMessage(multicastGroup, message);
+				} else if (kind.equals("digest") || kind.equals("nack")) {
+					handleReceiveDigest(multicastGroup, message);
+				} else {
+					handleReceiveOrderingMessage(multicastGroup, message);
 				}
 			}
-		}, "clientThread " + this.hashCode()).start();
+		} else {
+			synchronized (pointToPointLock) {
+				handleReceiveNormalMessage(message, mustDuplicate);
+			}
+		}
 	}
 
 	/**
 	 * Handle multicast message
 	 * 
 	 * Check whether or not the node has ever gotten the message. If not,
-	 * remember and deliver it. If it is not the sender of this message,
-	 * multicast it to the other group members.
+	 * remember it, pass it on as the group's dissemination strategy says, and
+	 * deliver it once it is causally ready. The caller holds the group lock.
 	 * 
+	 * @param multicastGroup
 	 * @param receivedMessage
 	 */
-	private synchronized void handleReceiveMulticastMessage(TimeStampedMessage receivedMessage) {
-		String messageBody = (String) receivedMessage.getData();
-		// {R-deliver} Check whether it has received this message
-		if (receivedMulticast.contains(messageBody))
-			return;
-		receivedMulticast.add(messageBody);
+	private void handleReceiveMulticastMessage(MulticastGroup multicastGroup, TimeStampedMessage receivedMessage) {
 		String multicaster = receivedMessage.getMulticasterName();
-		String groupName = receivedMessage.getMulticastGroupName();
-		VectorClock groupClock = clockServiceGroups.get(groupName);
+		Integer multicastSequenceNumber = receivedMessage.getMulticastSequenceNumber();
+		if (multicaster == null || multicastSequenceNumber == null) {
+			System.out.println("\nIgnored a multicast without a multicast header");
+			return;
+		}
+		if (!(receivedMessage.getTimeStamp() instanceof VectorTimeStamp)) {
+			System.out.println("\nIgnored a multicast without a vector time stamp");
+			return;
+		}
+		Group group = multicastGroup.getGroup();
+		if (((VectorTimeStamp) receivedMessage.getTimeStamp()).size() != group.size()) {
+			System.out.println("\nIgnored a multicast of " + group.getName() + " from " + receivedMessage.getSource()
+					+ " whose vector does not match the " + group.size() + " members");
+			return;
+		}
+		int j = group.indexOf(multicaster);
+		if (j < 0) {
+			System.out.println(multicaster + " is not a member of " + group.getName());
+			return;
+		}
+		// Its time stamp tells what the multicaster had delivered
+		multicastGroup.getStabilityTracker().update(j, (VectorTimeStamp) receivedMessage.getTimeStamp());
+		// {R-deliver} Check whether it has received this message. A number
+		// that was too far ahead for the filter to record when it first came
+		// is in the hold-back queue, or already delivered.
+		DuplicateFilter duplicateFilter = multicastGroup.getDuplicateFilter();
+		if (!duplicateFilter.isBeyondWindow(multicaster, multicastSequenceNumber)
+				&& !duplicateFilter.markReceived(multicaster, multicastSequenceNumber))
+			return;
+		if (!multicaster.equals(localName) && multicastGroup.getHoldBackQueue().contains(receivedMessage, j))
+			return;
+		MulticastHistory history = multicastGroup.getHistory();
 		System.out
 				.println("\nReceived a multicast by {" + multicaster + "} from {" + receivedMessage.getSource() + "}");
-		// {R-deliver} Multicast it if current node is not its sender
+		// Its own multicast: deliver it right away
 		if (receivedMessage.getSource().equals(localName)) {
-			receiveBuffer.add(receivedMessage);
+			history.add(receivedMessage, group.indexOf(localName));
+			deliverInGroupOrder(multicastGroup, receivedMessage);
 			return;
 		}
-		System.out.println("Will multicast it to " + groupName + " soon");
-		// {CO-deliver} Put it in the hold-back queue
-		holdBackQueue.add(receivedMessage);
-		// Help make sure that there are no messages that satisfy delivery
-		// condition being leftover in the queue
-		LinkedList<TimeStampedMessage> deliveredList = new LinkedList<TimeStampedMessage>();
-		int lastDeliveredListSize;
-		do {
-			lastDeliveredListSize = deliveredList.size();
-			// Look for messages that satisfy CO-delivery conditions
-			@SuppressWarnings("unchecked")
-			ArrayList<Integer> localTimeStamp = (ArrayList<Integer>) groupClock.getTimeStamp();
-			for (int i = 0; i < holdBackQueue.size(); i++) {
-				// Get only message that hasn't been processed yet
-				TimeStampedMessage messageInQueue = holdBackQueue.get(i);
-				if (deliveredList.contains(messageInQueue))
-					continue;
-				// Check whether or not message satisfies delivery condition
-				@SuppressWarnings("unchecked")
-				ArrayList<Integer> messageTimeStamp = (ArrayList<Integer>) messageInQueue.getTimeStamp();
-				int j = getProcessIndex(messageInQueue.getMulticasterName());
-				boolean mustDeliver = true;
-				// Check Vj[j] == Vi[j] + 1
-				if (messageTimeStamp.get(j).equals(localTimeStamp.get(j) + 1)) {
-					// Check Vj[k] <= Vi[k] and k != j
-					for (int k = 0; k < messageTimeStamp.size(); k++) {
-						if (k == j)
-							continue;
-						if (messageTimeStamp.get(k).compareTo(localTimeStamp.get(k)) > 0) {
-							mustDeliver = false;
-							break;
-						}
-					}
-				} else
-					mustDeliver = false;
-				if (mustDeliver) {
-					// Remember it to be removed from the queue later
-					deliveredList.add(messageInQueue);
-					// Deliver this message
-					receiveBuffer.add(messageInQueue);
-					// Vi[j] := Vi[j] + 1
-					groupClock.incTimeStamp(j);
-					// {R-deliver} Then, multicast it
-					System.out.println("Multicast the delivered message to " + groupName);
-					multicast(messageInQueue.getMulticastGroupName(), messageInQueue, false);
+		// {R-deliver} Pass it on the first time it is received
+		List<String> relayTargets = multicastGroup.getDisseminationStrategy().getTargets(group, localName,
+				multicaster, receivedMessage.getSource());
+		if (!relayTargets.isEmpty()) {
+			System.out.println("Will relay it to " + relayTargets);
+			TimeStampedMessage relayMessage = new TimeStampedMessage(receivedMessage);
+			relayMessage.setSource(localName);
+			relayMessage.setSequenceNumber(sequenceNumber.incrementAndGet());
+			sendToMembers(relayMessage, relayTargets);
+		}
+		// {CO-deliver} Put it in the hold-back queue, then deliver every
+		// message that satisfies Vj[j] == Vi[j] + 1 and Vj[k] <= Vi[k] (k != j)
+		for (TimeStampedMessage deliveredMessage : multicastGroup.getHoldBackQueue().add(receivedMessage, j)) {
+			history.add(deliveredMessage, group.indexOf(deliveredMessage.getMulticasterName()));
+			deliverInGroupOrder(multicastGroup, deliveredMessage);
+		}
+		System.out.print(commandPrompt);
+	}
+
+	/**
+	 * Deliver a causally ordered multicast, or hand it to the total ordering
+	 * of its group if there is one
+	 * 
+	 * @param multicastGroup
+	 * @param message
+	 */
+	private void deliverInGroupOrder(MulticastGroup multicastGroup, TimeStampedMessage message) {
+		TotalOrdering ordering = multicastGroup.getTotalOrdering();
+		if (ordering == null) {
+			receiveBuffer.add(message);
+			return;
+		}
+		List<TimeStampedMessage> outbox = new ArrayList<TimeStampedMessage>();
+		receiveBuffer.addAll(ordering.onCausalDelivery(message, outbox));
+		sendOrderingMessages(ordering, outbox);
+	}
+
+	/**
+	 * Handle order, propose and agree messages of a totally ordered group. The
+	 * caller holds the group lock.
+	 * 
+	 * @param multicastGroup
+	 * @param message
+	 */
+	private void handleReceiveOrderingMessage(MulticastGroup multicastGroup, TimeStampedMessage message) {
+		TotalOrdering ordering = multicastGroup.getTotalOrdering();
+		if (ordering == null)
+			return;
+		List<TimeStampedMessage> outbox = new ArrayList<TimeStampedMessage>();
+		receiveBuffer.addAll(ordering.onControlMessage(message, outbox));
+		sendOrderingMessages(ordering, outbox);
+	}
+
+	/**
+	 * Send the control messages of a total ordering. Those addressed to the
+	 * local node are handled right away and may add more.
+	 * 
+	 * @param ordering
+	 * @param outbox
+	 */
+	private void sendOrderingMessages(TotalOrdering ordering, List<TimeStampedMessage> outbox) {
+		for (int i = 0; i < outbox.size(); i++) {
+			TimeStampedMessage controlMessage = outbox.get(i);
+			if (controlMessage.getDestination().equals(localName)) {
+				receiveBuffer.addAll(ordering.onControlMessage(controlMessage, outbox));
+			} else {
+				controlMessage.setSequenceNumber(sequenceNumber.incrementAndGet());
+				send(controlMessage, getNodeIndex(controlMessage.getDestination()), true);
+			}
+		}
+	}
+
+	/**
+	 * Start sending a digest of each group that needs anti-entropy to a random
+	 * member every ANTI_ENTROPY_INTERVAL_MS, and checking every group for gaps
+	 * and stable messages every GROUP_CHECK_INTERVAL_MS
+	 */
+	private void startGroupTimer() {
+		if (multicastGroups.isEmpty())
+			return;
+		groupTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "groupTimer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		groupTimer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					sendDigests();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
 				}
 			}
-			// If there are some messages that delivered this round, there might
-			// be more messages in holdBackQueue that should deliver as well.
-			// So, we need to check it again
-		} while (deliveredList.size() > lastDeliveredListSize);
+		}, ANTI_ENTROPY_INTERVAL_MS, ANTI_ENTROPY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		groupTimer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					checkGroups();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		}, GROUP_CHECK_INTERVAL_MS, GROUP_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
 
-		// Remove delivered message from the hold-back queue
-		for (TimeStampedMessage toRemoveMessage : deliveredList) {
-			holdBackQueue.remove(toRemoveMessage);
+	/**
+	 * Send the group clock, i.e. the number of messages delivered from each
+	 * member, to a random member of every group that needs anti-entropy
+	 */
+	private void sendDigests() {
+		for (MulticastGroup multicastGroup : multicastGroups.values()) {
+			Group group = multicastGroup.getGroup();
+			if (!multicastGroup.getDisseminationStrategy().needsAntiEntropy())
+				continue;
+			// Only members this node is already talking to or has heard from,
+			// so that members that are not running do not cause connection
+			// attempts
+			List<String> peers = new ArrayList<String>(group.size());
+			synchronized (multicastGroup) {
+				for (String member : group.getMembers()) {
+					OutboundConnection connection = connectionPool.get(member);
+					boolean connected = connection != null && !connection.isClosed();
+					if (!member.equals(localName) && (connected || multicastGroup.hasHeardFrom(member)))
+						peers.add(member);
+				}
+			}
+			if (!peers.isEmpty())
+				sendDigest(multicastGroup, "digest", peers.get(random.nextInt(peers.size())));
 		}
+	}
 
-		// Process messages in receiveDelayedBuffer
-		while (!receiveDelayedBuffer.isEmpty()) {
-			handleReceiveMulticastMessage(receiveDelayedBuffer.poll());
+	/**
+	 * Discard the stable messages of every group, and let total orderings send
+	 * again the control messages that may have been lost. Then send a negative
+	 * acknowledgement to every multicaster whose next message has been missing
+	 * since the previous check. It is a digest, so the multicaster answers with
+	 * everything this node has not delivered.
+	 */
+	private void checkGroups() {
+		for (MulticastGroup multicastGroup : multicastGroups.values()) {
+			boolean needsNacks = multicastGroup.getDisseminationStrategy().needsAntiEntropy();
+			List<Integer> stalledSenders = Collections.emptyList();
+			synchronized (multicastGroup) {
+				multicastGroup.discardStable();
+				TotalOrdering ordering = multicastGroup.getTotalOrdering();
+				if (ordering != null) {
+					List<TimeStampedMessage> outbox = new ArrayList<TimeStampedMessage>();
+					ordering.onTimer(outbox);
+					sendOrderingMessages(ordering, outbox);
+				}
+				if (needsNacks)
+					stalledSenders = multicastGroup.findStalledSenders();
+			}
+			for (int k : stalledSenders) {
+				String multicaster = multicastGroup.getGroup().getMembers().get(k);
+				if (!multicaster.equals(localName)) {
+					System.out.println("\nAsk " + multicaster + " to retransmit multicasts of "
+							+ multicastGroup.getName());
+					sendDigest(multicastGroup, "nack", multicaster);
+				}
+			}
 		}
+	}
 
-		System.out.print(commandPrompt);
+	/**
+	 * Send the group clock, i.e. the number of messages delivered from each
+	 * member, to a member. The stable vector rides along as the data.
+	 * 
+	 * @param multicastGroup
+	 * @param kind
+	 *            digest or nack
+	 * @param peer
+	 */
+	private void sendDigest(MulticastGroup multicastGroup, String kind, String peer) {
+		TimeStampedMessage digest = new TimeStampedMessage(peer, kind, null);
+		digest.setSource(localName);
+		digest.setSequenceNumber(sequenceNumber.incrementAndGet());
+		digest.setMulticasterName(localName);
+		digest.setMulticastGroupName(multicastGroup.getName());
+		digest.setMulticastSequenceNumber(0);
+		digest.setTimeStamp(multicastGroup.getClock().getTimeStamp());
+		synchronized (multicastGroup) {
+			digest.setData(VectorTimeStamp.wrap(multicastGroup.getStabilityTracker().getStable()));
+		}
+		send(digest, getNodeIndex(peer), true);
+	}
+
+	/**
+	 * Handle digest or negative acknowledgement
+	 * 
+	 * Learn what the sender has delivered and what it knows to be stable, then
+	 * send it every multicast it has not delivered yet and that is still in
+	 * the history. The caller holds the group lock.
+	 * 
+	 * @param multicastGroup
+	 * @param digest
+	 */
+	private void handleReceiveDigest(MulticastGroup multicastGroup, TimeStampedMessage digest) {
+		VectorClock groupClock = multicastGroup.getClock();
+		if (!(digest.getTimeStamp() instanceof VectorTimeStamp)
+				|| ((VectorTimeStamp) digest.getTimeStamp()).size() != groupClock.size()) {
+			System.out.println("\nIgnored a " + digest.getKind() + " of " + multicastGroup.getName() + " from "
+					+ digest.getSource() + " whose vector does not match the " + groupClock.size() + " members");
+			return;
+		}
+		VectorTimeStamp remoteTimeStamp = (VectorTimeStamp) digest.getTimeStamp();
+		int senderIndex = multicastGroup.getGroup().indexOf(digest.getSource());
+		if (senderIndex >= 0)
+			multicastGroup.getStabilityTracker().update(senderIndex, remoteTimeStamp);
+		if (digest.getData() instanceof VectorTimeStamp) {
+			VectorTimeStamp remoteStable = (VectorTimeStamp) digest.getData();
+			if (remoteStable.size() == groupClock.size())
+				multicastGroup.getStabilityTracker().updateStable(remoteStable);
+		}
+		MulticastHistory history = multicastGroup.getHistory();
+		List<String> requester = Collections.singletonList(digest.getSource());
+		int repairedCount = 0;
+		for (int k = 0; k < remoteTimeStamp.size(); k++) {
+			int delivered = groupClock.get(k);
+			for (int v = remoteTimeStamp.get(k) + 1; v <= delivered; v++) {
+				TimeStampedMessage missingMessage = history.get(k, v);
+				if (missingMessage == null)
+					continue;
+				TimeStampedMessage repairMessage = new TimeStampedMessage(missingMessage);
+				repairMessage.setSource(localName);
+				repairMessage.setSequenceNumber(sequenceNumber.incrementAndGet());
+				sendToMembers(repairMessage, requester);
+				repairedCount++;
+			}
+		}
+		if (repairedCount > 0) {
+			System.out.println("\nSent " + repairedCount + " missing multicasts of " + multicastGroup.getName() + " to "
+					+ digest.getSource());
+			System.out.print(commandPrompt);
+		}
 	}
 
 	/**
 	 * Handle normal message
 	 * 
-	 * (a) Deliver the message (b) Make a duplicate if needed (c) Deliver all
-	 * delayed messages
+	 * (a) Deliver the message (b) Make a duplicate if needed. The caller holds
+	 * the point-to-point lock.
 	 * 
 	 * @param message
 	 */
-	private synchronized void handleReceiveNormalMessage(TimeStampedMessage message, boolean mustDuplicate) {
+	private void handleReceiveNormalMessage(TimeStampedMessage message, boolean mustDuplicate) {
 		// Deliver current message
 		receiveBuffer.add(message);
 		// Increment timestamp
@@ -740,66 +1535,54 @@ public class MessagePasser {
 			receiveBuffer.add(duplicateMessage);
 			// Increment timestamp
 			clockService.updateTime(message.getTimeStamp());
-//			printTimeStamp();
-		}
-		// Deliver delayed messages
-		while (!receiveDelayedBuffer.isEmpty()) {
-			receiveBuffer.add(receiveDelayedBuffer.poll());
-			// Increment timestamp
-			clockService.updateTime(message.getTimeStamp());
 //			printTimeStamp();
 		}
 		System.out.print(commandPrompt);
 	}
 
 	/**
-	 * Start a thread that keeps listening to incoming connections from
-	 * MessagePassers
+	 * Start the event loops that serve connections from and to MessagePassers
+	 * 
+	 * @throws IOException
 	 */
-	private void startListenerThread() {
-		new Thread(new Runnable() {
-			public void run() {
-				System.out.println("Local server is listening on port " + listenerSocket.getLocalPort());
-
-				try {
-					Socket socket = new Socket(localNode.getIp(), localNode.getPort());
-					ObjectOutputStream ot = new ObjectOutputStream(socket.getOutputStream());
-					clientSocketPool.put(localName, socket);
-					clientOutputPool.put(localName, ot);
-				} catch (UnknownHostException e1) {
-					e1.printStackTrace();
-				} catch (IOException e1) {
-					e1.printStackTrace();
-				}
-				try {
-					while (true) {
-						Socket socket = listenerSocket.accept();
-						startClientThread(socket);
-					}
-				} catch (IOException e) {
-				} finally {
-					try {
-						listenerSocket.close();
-					} catch (Exception e) {
-					}
-				}
+	private void startTransport() throws IOException {
+		int eventLoopCount = DEFAULT_IO_THREADS;
+		if (localNode.getIoThreads() != null)
+			eventLoopCount = localNode.getIoThreads();
+		transport = new SelectorTransport(localNode.getPort(), eventLoopCount, new MessageHandler() {
+			public void onMessage(TimeStampedMessage message) {
+				handleIncomingMessage(message);
 			}
-		}, "listener").start();
+		});
+		transport.start();
+		System.out.println("Local server is listening on port " + transport.getLocalPort() + " with "
+				+ eventLoopCount + " event loop(s)");
 	}
 
 	/**
-	 * Start a thread that monitors receiveBuffer and print messages in it
+	 * Start a thread that waits on receiveBuffer and delivers messages as soon
+	 * as they are added. Everything that is ready is delivered in one batch.
 	 * 
 	 * @throws IOException
 	 */
 	private void startMessageReceiverThread() throws IOException {
 		new Thread(new Runnable() {
 			public void run() {
+				List<TimeStampedMessage> batch = new ArrayList<TimeStampedMessage>();
 				try {
 					while (!willTerminate) {
-						receive();
-						Thread.sleep(100);
+						batch.add(receiveBuffer.take());
+						receiveBuffer.drainTo(batch);
+						for (TimeStampedMessage message : batch) {
+							deliver(message);
+						}
+						batch.clear();
+						// Answers to every mutual exclusion message of the batch
+						if (mutex != null)
+							flushMutexMessages();
+						System.out.print(commandPrompt);
 					}
+				} catch (InterruptedException e) {
 				} catch (Exception e) {
 					e.printStackTrace();
 				}
@@ -812,20 +1595,12 @@ public class MessagePasser {
 	 * 
 	 * @param message
 	 *            Sending message
-	 * @return A rule to apply
+	 * @return A rule to apply, or null if none matches or the matching rule
+	 *         does not fire this time
 	 */
 	private Rule checkSendRule(Message message) {
-		try {
-			ConfigFileParser p = new ConfigFileParser(configurationFileName, localName);
-			sendRuleList = p.getSendRules();
-			for (int i = 0; i < sendRuleList.size(); i++) {
-				if (sendRuleList.get(i).matches(message))
-					return sendRuleList.get(i);
-			}
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		}
-		return null;
+		Rule rule = rules.matchSendRule(message);
+		return (rule != null && rule.fires(random)) ? rule : null;
 	}
 
 	/**
@@ -833,20 +1608,12 @@ public class MessagePasser {
 	 * 
 	 * @param message
 	 *            Receiving message
-	 * @return A rule to apply
+	 * @return A rule to apply, or null if none matches or the matching rule
+	 *         does not fire this time
 	 */
 	private Rule checkReceiveRule(Message message) {
-		try {
-			ConfigFileParser p = new ConfigFileParser(configurationFileName, localName);
-			receiveRuleList = p.getReceiveRules();
-			for (int i = 0; i < receiveRuleList.size(); i++) {
-				if (receiveRuleList.get(i).matches(message))
-					return receiveRuleList.get(i);
-			}
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		}
-		return null;
+		Rule rule = rules.matchReceiveRule(message);
+		return (rule != null && rule.fires(random)) ? rule : null;
 	}
 
 }
@@ -0,0 +1,141 @@
+package edu.cmu.ds.messagepasser;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.cmu.ds.messagepasser.model.Message;
+import edu.cmu.ds.messagepasser.model.Rule;
+import edu.cmu.ds.messagepasser.model.RuleTable;
+
+/**
+ * Send and receive rules of a configuration file, kept up to date with it
+ *
+ * The rules are compiled once into RuleTables. Lookups look at the
+ * modification time of the file at most once per check interval, and reload
+ * both tables together when it has changed, so editing the rules still takes
+ * effect while the node runs without any file access per message. A file that
+ * is missing or cannot be parsed leaves the current rules in place, and is
+ * reported once until it changes again.
+ *
+ * Thread safe.
+ */
+public class RuleBook {
+	public static final int DEFAULT_CHECK_INTERVAL_MS = 1000;
+
+	/**
+	 * Both rule tables, swapped as one
+	 */
+	private static class Tables {
+		final RuleTable send;
+		final RuleTable receive;
+		final long lastModified;
+
+		Tables(RuleTable send, RuleTable receive, long lastModified) {
+			this.send = send;
+			this.receive = receive;
+			this.lastModified = lastModified;
+		}
+	}
+
+	private final File file;
+	private final String localName;
+	private final long checkIntervalNanos;
+	private final AtomicLong nextCheck;
+	private volatile Tables tables;
+	/*
+	 * Modification time of a version of the file that could not be read, and
+	 * whether the file was missing at the last check
+	 */
+	private volatile long failedModified = 0;
+	private volatile boolean missing = false;
+
+	/**
+	 * @param configurationFileName
+	 * @param localName
+	 * @param parser
+	 *            Parser that has just read the file
+	 * @param checkIntervalMs
+	 *            How often to look for changes, 0 never to reload
+	 */
+	public RuleBook(String configurationFileName, String localName, ConfigFileParser parser, int checkIntervalMs) {
+		this.file = new File(configurationFileName);
+		this.localName = localName;
+		this.checkIntervalNanos = TimeUnit.MILLISECONDS.toNanos(checkIntervalMs);
+		this.tables = compile(parser, file.lastModified());
+		this.nextCheck = new AtomicLong(System.nanoTime() + checkIntervalNanos);
+	}
+
+	/**
+	 * @param message
+	 *            Message being sent
+	 * @return The send rule to apply, or null
+	 */
+	public Rule matchSendRule(Message message) {
+		reloadIfChanged();
+		return tables.send.match(message);
+	}
+
+	/**
+	 * @param message
+	 *            Message received
+	 * @return The receive rule to apply, or null
+	 */
+	public Rule matchReceiveRule(Message message) {
+		reloadIfChanged();
+		return tables.receive.match(message);
+	}
+
+	/**
+	 * Reload the rules if the check interval has passed and the file has
+	 * changed. Only one thread checks at a time; the others go on with the
+	 * current rules.
+	 */
+	private void reloadIfChanged() {
+		if (checkIntervalNanos == 0)
+			return;
+		long now = System.nanoTime();
+		long next = nextCheck.get();
+		if (now - next < 0 || !nextCheck.compareAndSet(next, now + checkIntervalNanos))
+			return;
+		long lastModified = file.lastModified();
+		if (lastModified == 0) {
+			if (!missing) {
+				missing = true;
+				report("Couldn't reload rules from " + file.getPath() + " | file not found");
+			}
+			return;
+		}
+		missing = false;
+		if (lastModified == tables.lastModified || lastModified == failedModified)
+			return;
+		try {
+			tables = compile(new ConfigFileParser(file.getPath(), localName), lastModified);
+			report("Reloaded rules from " + file.getPath() + ": " + tables.send.size() + " send, "
+					+ tables.receive.size() + " receive");
+		} catch (FileNotFoundException e) {
+			// Removed since it was checked: keep the current rules
+			failedModified = lastModified;
+			missing = true;
+			report("Couldn't reload rules from " + file.getPath() + " | " + e);
+		} catch (RuntimeException e) {
+			// Keep the current rules until the file changes again
+			failedModified = lastModified;
+			report("Couldn't reload rules from " + file.getPath() + " | " + e);
+		}
+	}
+
+	/**
+	 * Print a note from a message thread without losing the command prompt
+	 */
+	private static void report(String note) {
+		System.out.println("\n" + note);
+		System.out.print(MessagePasser.commandPrompt);
+	}
+
+	private static Tables compile(ConfigFileParser parser, long lastModified) {
+		return new Tables(new RuleTable(parser.getSendRules()), new RuleTable(parser.getReceiveRules()),
+				lastModified);
+	}
+}
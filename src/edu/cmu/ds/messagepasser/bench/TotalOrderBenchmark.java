@@ -0,0 +1,182 @@
+package edu.cmu.ds.messagepasser.bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import edu.cmu.ds.messagepasser.DeliveryListener;
+import edu.cmu.ds.messagepasser.MessagePasser;
+import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
+import edu.cmu.ds.messagepasser.multicast.IsisOrdering;
+import edu.cmu.ds.messagepasser.multicast.SequencerOrdering;
+
+/**
+ * Compare the throughput and latency of the sequencer and ISIS total orderings
+ *
+ * Runs a group of in-process nodes on the loopback interface for each ordering.
+ * Every node multicasts the same number of messages at once, and the time from
+ * multicast to delivery is measured at every member. Also checks that all
+ * members delivered the same order.
+ *
+ * Usage: TotalOrderBenchmark [nodes] [messages per node] [base port]
+ */
+public class TotalOrderBenchmark {
+	private static final String GROUP_NAME = "bench";
+	private static final long TIMEOUT_SECONDS = 120;
+
+	public static void main(String[] args) throws Exception {
+		int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int messagesPerNode = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		int basePort = args.length > 2 ? Integer.parseInt(args[2]) : 30000;
+
+		// MessagePasser reports every message on the console
+		PrintStream console = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) {
+			}
+		}));
+		console.println(nodeCount + " nodes, " + messagesPerNode + " multicasts per node");
+		String[] orderings = { SequencerOrdering.NAME, IsisOrdering.NAME };
+		for (String ordering : orderings) {
+			console.println(run(ordering, nodeCount, messagesPerNode, basePort));
+			basePort += nodeCount;
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * @param ordering
+	 * @param nodeCount
+	 * @param messagesPerNode
+	 * @param basePort
+	 * @return Report line
+	 * @throws Exception
+	 */
+	private static String run(String ordering, int nodeCount, int messagesPerNode, int basePort) throws Exception {
+		File configFile = writeConfig(ordering, nodeCount, basePort);
+		int expectedDeliveries = nodeCount * nodeCount * messagesPerNode;
+		final CountDownLatch deliveries = new CountDownLatch(expectedDeliveries);
+		final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>(expectedDeliveries));
+		List<List<String>> deliveryOrders = new ArrayList<List<String>>();
+
+		final MessagePasser[] nodes = new MessagePasser[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			nodes[i] = new MessagePasser(configFile.getPath(), getNodeName(i), false);
+			final List<String> deliveryOrder = Collections.synchronizedList(new ArrayList<String>());
+			deliveryOrders.add(deliveryOrder);
+			nodes[i].addDeliveryListener(new DeliveryListener() {
+				public void onDelivery(TimeStampedMessage message) {
+					if (!"multicast".equals(message.getKind()))
+						return;
+					latencies.add(System.nanoTime() - Long.parseLong((String) message.getData()));
+					deliveryOrder.add(message.getMulticasterName() + "#" + message.getMulticastSequenceNumber());
+					deliveries.countDown();
+				}
+			});
+		}
+		// Let the nodes connect
+		Thread.sleep(500);
+
+		long startTime = System.nanoTime();
+		List<Thread> senders = new ArrayList<Thread>();
+		for (int i = 0; i < nodeCount; i++) {
+			final MessagePasser node = nodes[i];
+			final int count = messagesPerNode;
+			Thread sender = new Thread(new Runnable() {
+				public void run() {
+					for (int n = 0; n < count; n++) {
+						node.multicast(GROUP_NAME, new TimeStampedMessage(null, null, Long.toString(System.nanoTime())),
+								true);
+					}
+				}
+			}, "benchSender-" + i);
+			senders.add(sender);
+			sender.start();
+		}
+		for (Thread sender : senders) {
+			sender.join();
+		}
+		boolean completed = deliveries.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		long elapsed = System.nanoTime() - startTime;
+
+		List<Long> sorted;
+		synchronized (latencies) {
+			sorted = new ArrayList<Long>(latencies);
+		}
+		Collections.sort(sorted);
+		long total = 0;
+		for (long latency : sorted) {
+			total += latency;
+		}
+		boolean sameOrder = true;
+		for (List<String> deliveryOrder : deliveryOrders) {
+			synchronized (deliveryOrder) {
+				sameOrder &= deliveryOrder.equals(deliveryOrders.get(0));
+			}
+		}
+		double seconds = elapsed / 1e9;
+		return String.format("%-10s %s %d/%d deliveries in %.2f s, %.0f multicasts/s, latency mean %.2f ms"
+				+ " p50 %.2f ms p99 %.2f ms, same order at all members: %s", ordering, completed ? "completed"
+				: "TIMED OUT", sorted.size(), expectedDeliveries, seconds, nodeCount * messagesPerNode / seconds,
+				sorted.isEmpty() ? 0 : total / 1e6 / sorted.size(), percentile(sorted, 0.5), percentile(sorted, 0.99),
+				sameOrder);
+	}
+
+	private static double percentile(List<Long> sorted, double fraction) {
+		if (sorted.isEmpty())
+			return 0;
+		int index = Math.min(sorted.size() - 1, (int) (fraction * sorted.size()));
+		return sorted.get(index) / 1e6;
+	}
+
+	private static String getNodeName(int index) {
+		return "node" + index;
+	}
+
+	/**
+	 * Write a configuration with one group of all nodes
+	 * 
+	 * @param ordering
+	 * @param nodeCount
+	 * @param basePort
+	 * @return
+	 * @throws IOException
+	 */
+	private static File writeConfig(String ordering, int nodeCount, int basePort) throws IOException {
+		StringBuilder config = new StringBuilder();
+		config.append("configuration :\n");
+		for (int i = 0; i < nodeCount; i++) {
+			config.append("  - name : ").append(getNodeName(i)).append("\n");
+			config.append("    ip   : 127.0.0.1\n");
+			config.append("    port : ").append(basePort + i).append("\n");
+			config.append("    memberOf :\n      - ").append(GROUP_NAME).append("\n");
+		}
+		config.append("\ngroups :\n  - name : ").append(GROUP_NAME).append("\n");
+		config.append("    ordering : ").append(ordering).append("\n");
+		config.append("    members :\n");
+		for (int i = 0; i < nodeCount; i++) {
+			config.append("      - ").append(getNodeName(i)).append("\n");
+		}
+		config.append("\nlogger :\n  - ip : 127.0.0.1\n    port : ").append(basePort + nodeCount).append("\n");
+		// The rule lists must not be empty
+		config.append("\nsendRules :\n  - action : drop\n    src : nobody\n");
+		config.append("\nreceiveRules :\n  - action : drop\n    src : nobody\n");
+
+		File configFile = File.createTempFile("totalOrderBenchmark", ".yaml");
+		configFile.deleteOnExit();
+		FileWriter writer = new FileWriter(configFile);
+		try {
+			writer.write(config.toString());
+		} finally {
+			writer.close();
+		}
+		return configFile;
+	}
+}
@@ -1,28 +1,20 @@
 package edu.cmu.ds.messagepasser.clock;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 public class VectorClock extends ClockService {
-	private ArrayList<Integer> vectorTime = null;
-	private Integer processCount = null;
-	private Integer localProcessIndex = null;
+	private final int[] vectorTime;
+	private final int localProcessIndex;
 
 	public VectorClock(int sum, int index) {
-		processCount = sum;
+		vectorTime = new int[sum];
 		localProcessIndex = index;
-		vectorTime = new ArrayList<Integer>();
-		for (int i = 0; i < processCount; ++i) {
-			vectorTime.add(0);
-		}
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
-	public Object incrementAndGetTimeStamp() {
-		synchronized (vectorTime) {
-			vectorTime.set(localProcessIndex, vectorTime.get(localProcessIndex) + 1);
-			return (ArrayList<Integer>) vectorTime.clone();
-		}
+	public synchronized VectorTimeStamp incrementAndGetTimeStamp() {
+		vectorTime[localProcessIndex]++;
+		return VectorTimeStamp.wrap(vectorTime.clone());
 	}
 
 	/**
@@ -30,36 +22,45 @@ public class VectorClock extends ClockService {
 	 * 
 	 * @param processIndex
 	 */
-	public void incTimeStamp(int processIndex) {
-		synchronized (vectorTime) {
-			vectorTime.set(processIndex, vectorTime.get(processIndex) + 1);
-		}
+	public synchronized void incTimeStamp(int processIndex) {
+		vectorTime[processIndex]++;
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public void updateTime(Object timeStamp) {
-		ArrayList<Integer> newTime = (ArrayList<Integer>) timeStamp;
-		synchronized (vectorTime) {
-			vectorTime.set(localProcessIndex, vectorTime.get(localProcessIndex) + 1);
-			for (int i = 0; i < vectorTime.size(); ++i) {
-				if (newTime.get(i) > vectorTime.get(i)) {
-					vectorTime.set(i, newTime.get(i));
-				}
+		updateTime((VectorTimeStamp) timeStamp);
+	}
+
+	public synchronized void updateTime(VectorTimeStamp newTime) {
+		vectorTime[localProcessIndex]++;
+		for (int i = 0; i < vectorTime.length; ++i) {
+			if (newTime.get(i) > vectorTime[i]) {
+				vectorTime[i] = newTime.get(i);
 			}
 		}
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
-	public Object getTimeStamp() {
-		synchronized (vectorTime) {
-			return (ArrayList<Integer>) vectorTime.clone();
-		}
+	public synchronized VectorTimeStamp getTimeStamp() {
+		return VectorTimeStamp.wrap(vectorTime.clone());
+	}
+
+	/**
+	 * Read one entry without taking a snapshot
+	 * 
+	 * @param processIndex
+	 * @return
+	 */
+	public synchronized int get(int processIndex) {
+		return vectorTime[processIndex];
+	}
+
+	public int size() {
+		return vectorTime.length;
 	}
 
 	@Override
-	public String toString() {
-		return "VectorClock" + vectorTime;
+	public synchronized String toString() {
+		return "VectorClock" + Arrays.toString(vectorTime);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,131 @@
+package edu.cmu.ds.messagepasser.clock;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of a vector clock
+ * 
+ * Comparisons and merges work directly on the primitive entries and never box.
+ */
+public final class VectorTimeStamp implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Causal relation between two time stamps
+	 */
+	public enum Order {
+		BEFORE, EQUAL, AFTER, CONCURRENT;
+	}
+
+	private final int[] entries;
+
+	private VectorTimeStamp(int[] entries) {
+		this.entries = entries;
+	}
+
+	/**
+	 * Create a time stamp holding a copy of the given entries
+	 * 
+	 * @param entries
+	 * @return
+	 */
+	public static VectorTimeStamp of(int... entries) {
+		return new VectorTimeStamp(entries.clone());
+	}
+
+	/**
+	 * Create a time stamp that takes ownership of an array. The caller must not
+	 * modify the array afterwards.
+	 * 
+	 * @param entries
+	 * @return
+	 */
+	public static VectorTimeStamp wrap(int[] entries) {
+		return new VectorTimeStamp(entries);
+	}
+
+	public int size() {
+		return entries.length;
+	}
+
+	public int get(int index) {
+		return entries[index];
+	}
+
+	public int[] toArray() {
+		return entries.clone();
+	}
+
+	/**
+	 * Compare two time stamps of the same size
+	 * 
+	 * @param other
+	 * @return
+	 */
+	public Order compare(VectorTimeStamp other) {
+		boolean isLessOrEqual = true;
+		boolean isMoreOrEqual = true;
+		for (int i = 0; i < entries.length; i++) {
+			if (entries[i] > other.entries[i])
+				isLessOrEqual = false;
+			else if (entries[i] < other.entries[i])
+				isMoreOrEqual = false;
+		}
+		if (isLessOrEqual && isMoreOrEqual)
+			return Order.EQUAL;
+		if (isLessOrEqual)
+			return Order.BEFORE;
+		if (isMoreOrEqual)
+			return Order.AFTER;
+		return Order.CONCURRENT;
+	}
+
+	/**
+	 * @param other
+	 * @return True if this time stamp happened before the other one
+	 */
+	public boolean happenedBefore(VectorTimeStamp other) {
+		return compare(other) == Order.BEFORE;
+	}
+
+	/**
+	 * @param other
+	 * @return True if every entry is at least the other's and one is greater
+	 */
+	public boolean dominates(VectorTimeStamp other) {
+		return compare(other) == Order.AFTER;
+	}
+
+	public boolean concurrent(VectorTimeStamp other) {
+		return compare(other) == Order.CONCURRENT;
+	}
+
+	/**
+	 * @param other
+	 * @return Element-wise maximum of both time stamps
+	 */
+	public VectorTimeStamp merge(VectorTimeStamp other) {
+		int[] merged = entries.clone();
+		for (int i = 0; i < merged.length; i++) {
+			if (other.entries[i] > merged[i])
+				merged[i] = other.entries[i];
+		}
+		return new VectorTimeStamp(merged);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof VectorTimeStamp && Arrays.equals(entries, ((VectorTimeStamp) o).entries);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(entries);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(entries);
+	}
+}
@@ -11,6 +11,7 @@ import java.util.Vector;
 import java.util.concurrent.Semaphore;
 
 import edu.cmu.ds.messagepasser.ConfigFileParser;
+import edu.cmu.ds.messagepasser.clock.VectorTimeStamp;
 import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
 
 public class VectorLogger {
@@ -82,37 +83,18 @@ public class VectorLogger {
 	}
 
 	public static String compare(int a, int b) {
-		@SuppressWarnings("unchecked")
-		ArrayList<Integer> m1 = (ArrayList<Integer>) information.get(a).getTimeStamp();
-		@SuppressWarnings("unchecked")
-		ArrayList<Integer> m2 = (ArrayList<Integer>) information.get(b).getTimeStamp();
-		int length = m1.size();
-
-		boolean check = true;
-		for (int i = 0; i < length; i++) {
-			if (m1.get(i) <= m2.get(i))
-				continue;
-			else {
-				check = false;
-				break;
-			}
-		}
-		if (check == true)
-			return " <- ";
+		VectorTimeStamp m1 = (VectorTimeStamp) information.get(a).getTimeStamp();
+		VectorTimeStamp m2 = (VectorTimeStamp) information.get(b).getTimeStamp();
 
-		check = true;
-		for (int i = 0; i < length; i++) {
-			if (m1.get(i) >= m2.get(i))
-				continue;
-			else {
-				check = false;
-				break;
-			}
-		}
-		if (check == true)
+		switch (m1.compare(m2)) {
+		case BEFORE:
+		case EQUAL:
+			return " <- ";
+		case AFTER:
 			return " -> ";
-
-		return " || ";
+		default:
+			return " || ";
+		}
 
 	}
 
@@ -124,8 +106,7 @@ public class VectorLogger {
 		}
 		for (int i = 0; i < information.size(); i++) {
 			TimeStampedMessage e = information.get(i);
-			@SuppressWarnings("unchecked")
-			ArrayList<Integer> list = (ArrayList<Integer>) e.getTimeStamp();
+			VectorTimeStamp list = (VectorTimeStamp) e.getTimeStamp();
 
 			System.out.print(i + " " + e.getSource() + " to " + e.getDestination() + " "
 					+ e.getSequenceNumber());
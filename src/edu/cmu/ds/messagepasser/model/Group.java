@@ -0,0 +1,93 @@
+package edu.cmu.ds.messagepasser.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A multicast group and its members. Members are indexed in configuration
+ * order, which is also the index space of the group's vector clock.
+ */
+public class Group {
+	private String name;
+	private ArrayList<String> members;
+	private Map<String, Integer> memberIndex = new HashMap<String, Integer>();
+	private String dissemination = null;
+	private Integer fanout = null;
+	private String ordering = null;
+
+	public Group(String name, ArrayList<String> members) {
+		this.name = name;
+		this.members = members;
+		for (int i = 0; i < members.size(); i++) {
+			memberIndex.put(members.get(i), i);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public List<String> getMembers() {
+		return members;
+	}
+
+	public int size() {
+		return members.size();
+	}
+
+	public boolean contains(String nodeName) {
+		return memberIndex.containsKey(nodeName);
+	}
+
+	/**
+	 * @param nodeName
+	 * @return Index of the member in this group, -1 if it is not a member
+	 */
+	public int indexOf(String nodeName) {
+		Integer index = memberIndex.get(nodeName);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * @return How multicasts reach the members (nack, flood, tree or gossip).
+	 *         Null if not configured, in which case nack is used.
+	 */
+	public String getDissemination() {
+		return dissemination;
+	}
+
+	public void setDissemination(String dissemination) {
+		this.dissemination = dissemination;
+	}
+
+	/**
+	 * @return Children per node of the relay tree, or peers per gossip round.
+	 *         Null if not configured.
+	 */
+	public Integer getFanout() {
+		return fanout;
+	}
+
+	public void setFanout(Integer fanout) {
+		this.fanout = fanout;
+	}
+
+	/**
+	 * @return Delivery order of multicasts (causal, sequencer or isis). Null if
+	 *         not configured.
+	 */
+	public String getOrdering() {
+		return ordering;
+	}
+
+	public void setOrdering(String ordering) {
+		this.ordering = ordering;
+	}
+
+	@Override
+	public String toString() {
+		return members.toString();
+	}
+}
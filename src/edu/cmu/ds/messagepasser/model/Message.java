@@ -107,7 +107,16 @@ public class Message implements Serializable {
 	public String toString() {
 		return "Message[\n\tsource = " + source + "\n\tdestination = " + destination + "\n\tsequenceNumber = "
 				+ sequenceNumber + "\n\tisDuplicate = " + isDuplicate + "\n\tkind = " + kind + "\n\tbody = "
-				+ (String) data + "\n]";
+				+ getDataString() + "\n]";
+	}
+
+	/**
+	 * @return Printable form of the data, which may be raw bytes
+	 */
+	protected String getDataString() {
+		if (data instanceof byte[])
+			return "<" + ((byte[]) data).length + " bytes>";
+		return String.valueOf(data);
 	}
 
 }
@@ -1,5 +1,5 @@
 package edu.cmu.ds.messagepasser.model;
 
 public enum MutualExclusionCommand {
-	REQUEST, REPLY, RELEASE;
+	REQUEST, REPLY, RELEASE, INQUIRE, YIELD, FAILED, TOKEN, BATCH, RENEW, REQUEST_SHARED;
 }
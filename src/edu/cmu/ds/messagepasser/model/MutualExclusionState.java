@@ -1,5 +1,12 @@
 package edu.cmu.ds.messagepasser.model;
 
 public enum MutualExclusionState {
-	RELEASED, WANTED, HELD;
+	RELEASED, WANTED, HELD, HELD_SHARED;
+
+	/**
+	 * @return True if the lock is held, shared or not
+	 */
+	public boolean isHeld() {
+		return this == HELD || this == HELD_SHARED;
+	}
 }
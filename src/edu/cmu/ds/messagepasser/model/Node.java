@@ -8,6 +8,14 @@ public class Node {
 	private String ip;
 	private Integer port;
 	private ArrayList<String> memberOf = new ArrayList<String>();
+	private Integer ioThreads = null;
+	private String codec = null;
+	private Integer sendQueueCapacity = null;
+	private String sendQueuePolicy = null;
+	private Boolean vectorDelta = null;
+	private String quorum = null;
+	private String mutex = null;
+	private Integer leaseMs = null;
 
 	public Node() {
 	}
@@ -51,4 +59,117 @@ public class Node {
 		return memberOf;
 	}
 
+	/**
+	 * Number of event loop threads serving incoming connections. Null if not
+	 * configured.
+	 * 
+	 * @return
+	 */
+	public Integer getIoThreads() {
+		return ioThreads;
+	}
+
+	public void setIoThreads(Integer ioThreads) {
+		this.ioThreads = ioThreads;
+	}
+
+	/**
+	 * Name of the wire codec this node uses for outgoing messages. Null if not
+	 * configured.
+	 * 
+	 * @return
+	 */
+	public String getCodec() {
+		return codec;
+	}
+
+	public void setCodec(String codec) {
+		this.codec = codec;
+	}
+
+	/**
+	 * Maximum number of messages queued for each peer. Null if not configured.
+	 * 
+	 * @return
+	 */
+	public Integer getSendQueueCapacity() {
+		return sendQueueCapacity;
+	}
+
+	public void setSendQueueCapacity(Integer sendQueueCapacity) {
+		this.sendQueueCapacity = sendQueueCapacity;
+	}
+
+	/**
+	 * What to do when a peer's send queue is full (block, drop-oldest or
+	 * fail-fast). Null if not configured.
+	 * 
+	 * @return
+	 */
+	public String getSendQueuePolicy() {
+		return sendQueuePolicy;
+	}
+
+	public void setSendQueuePolicy(String sendQueuePolicy) {
+		this.sendQueuePolicy = sendQueuePolicy;
+	}
+
+	/**
+	 * Whether this node sends only the changed entries of vector time stamps
+	 * to its peers. Null if not configured.
+	 * 
+	 * @return
+	 */
+	public Boolean getVectorDelta() {
+		return vectorDelta;
+	}
+
+	public void setVectorDelta(Boolean vectorDelta) {
+		this.vectorDelta = vectorDelta;
+	}
+
+	/**
+	 * How this node picks its voting set for mutual exclusion: grid, derived
+	 * from the node list, or group, the first group it is a member of. Null if
+	 * not configured.
+	 * 
+	 * @return
+	 */
+	public String getQuorum() {
+		return quorum;
+	}
+
+	public void setQuorum(String quorum) {
+		this.quorum = quorum;
+	}
+
+	/**
+	 * Mutual exclusion algorithm (maekawa or raymond). Every node must use the
+	 * same one. Null if not configured.
+	 * 
+	 * @return
+	 */
+	public String getMutex() {
+		return mutex;
+	}
+
+	public void setMutex(String mutex) {
+		this.mutex = mutex;
+	}
+
+	/**
+	 * How long, in milliseconds, a mutual exclusion vote lasts unless renewed.
+	 * 0 turns leases off. Every node must use the same lease. Null if not
+	 * configured.
+	 * 
+	 * @return
+	 */
+	public Integer getLeaseMs() {
+		return leaseMs;
+	}
+
+	public void setLeaseMs(Integer leaseMs) {
+		this.leaseMs = leaseMs;
+	}
+
 }
@@ -1,5 +1,7 @@
 package edu.cmu.ds.messagepasser.model;
 
+import java.util.Random;
+
 public class Rule {
 	private String action;
 	private String source;
@@ -7,6 +9,16 @@ public class Rule {
 	private String kind;
 	private Integer sequenceNumber;
 	private Boolean isDuplicate;
+	/*
+	 * Timing of a delay: fixed, or random between delayMs and maxDelayMs. A
+	 * delay without delayMs holds the message until the next one.
+	 */
+	private Integer delayMs = null;
+	private Integer maxDelayMs = null;
+	/*
+	 * Chance that the action is taken when the rule matches. Always if null.
+	 */
+	private Double probability = null;
 
 	public Rule() {
 		action = null;
@@ -24,6 +36,9 @@ public class Rule {
 		kind = r.kind;
 		sequenceNumber = r.sequenceNumber;
 		isDuplicate = r.isDuplicate;
+		delayMs = r.delayMs;
+		maxDelayMs = r.maxDelayMs;
+		probability = r.probability;
 	}
 
 	public Rule(String action, String source, String destination, String kind,
@@ -84,6 +99,60 @@ public class Rule {
 		this.isDuplicate = isDuplicate;
 	}
 
+	public Integer getDelayMs() {
+		return delayMs;
+	}
+
+	public void setDelayMs(Integer delayMs) {
+		this.delayMs = delayMs;
+	}
+
+	public Integer getMaxDelayMs() {
+		return maxDelayMs;
+	}
+
+	public void setMaxDelayMs(Integer maxDelayMs) {
+		this.maxDelayMs = maxDelayMs;
+	}
+
+	public Double getProbability() {
+		return probability;
+	}
+
+	public void setProbability(Double probability) {
+		this.probability = probability;
+	}
+
+	/**
+	 * @return True if a delay releases the message after some time rather than
+	 *         with the next message
+	 */
+	public boolean isTimed() {
+		return delayMs != null;
+	}
+
+	/**
+	 * Decide whether the action is taken on a matching message
+	 * 
+	 * @param random
+	 * @return True with the probability of the rule
+	 */
+	public boolean fires(Random random) {
+		return probability == null || random.nextDouble() < probability;
+	}
+
+	/**
+	 * @param random
+	 * @return How long to delay a message, in milliseconds
+	 */
+	public long nextDelayMs(Random random) {
+		if (delayMs == null)
+			return 0;
+		if (maxDelayMs == null || maxDelayMs <= delayMs)
+			return delayMs;
+		return delayMs + random.nextInt(maxDelayMs - delayMs + 1);
+	}
+
 	public boolean matches(Message message) {
 		// If the target message is null: Not a match
 		if (message == null)
@@ -0,0 +1,136 @@
+package edu.cmu.ds.messagepasser.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rules compiled for lookup
+ *
+ * Rules are indexed by source, then destination, then kind, an unset field
+ * being indexed under null. A lookup visits at most the eight buckets the
+ * message can fall into and checks only the rules in them, so its cost does
+ * not grow with the number of rules that cannot match. The first matching
+ * rule in configuration order wins, as with a linear scan.
+ *
+ * Immutable, so it can be shared by any number of threads.
+ */
+public class RuleTable {
+	public static final RuleTable EMPTY = new RuleTable(new ArrayList<Rule>());
+
+	/**
+	 * A rule and its position in the configuration
+	 */
+	private static class Entry {
+		final int position;
+		final Rule rule;
+
+		Entry(int position, Rule rule) {
+			this.position = position;
+			this.rule = rule;
+		}
+	}
+
+	private final Map<String, Map<String, Map<String, Entry[]>>> index =
+			new HashMap<String, Map<String, Map<String, Entry[]>>>();
+	private final int size;
+
+	/**
+	 * @param rules
+	 *            In configuration order
+	 */
+	public RuleTable(List<Rule> rules) {
+		Map<String, Map<String, Map<String, List<Entry>>>> lists =
+				new HashMap<String, Map<String, Map<String, List<Entry>>>>();
+		for (int i = 0; i < rules.size(); i++) {
+			Rule rule = rules.get(i);
+			Map<String, Map<String, List<Entry>>> byDestination = lists.get(rule.getSource());
+			if (byDestination == null) {
+				byDestination = new HashMap<String, Map<String, List<Entry>>>();
+				lists.put(rule.getSource(), byDestination);
+			}
+			Map<String, List<Entry>> byKind = byDestination.get(rule.getDestination());
+			if (byKind == null) {
+				byKind = new HashMap<String, List<Entry>>();
+				byDestination.put(rule.getDestination(), byKind);
+			}
+			List<Entry> bucket = byKind.get(rule.getKind());
+			if (bucket == null) {
+				bucket = new ArrayList<Entry>();
+				byKind.put(rule.getKind(), bucket);
+			}
+			bucket.add(new Entry(i, new Rule(rule)));
+		}
+		for (Map.Entry<String, Map<String, Map<String, List<Entry>>>> s : lists.entrySet()) {
+			Map<String, Map<String, Entry[]>> byDestination = new HashMap<String, Map<String, Entry[]>>();
+			for (Map.Entry<String, Map<String, List<Entry>>> d : s.getValue().entrySet()) {
+				Map<String, Entry[]> byKind = new HashMap<String, Entry[]>();
+				for (Map.Entry<String, List<Entry>> k : d.getValue().entrySet()) {
+					byKind.put(k.getKey(), k.getValue().toArray(new Entry[k.getValue().size()]));
+				}
+				byDestination.put(d.getKey(), byKind);
+			}
+			index.put(s.getKey(), byDestination);
+		}
+		this.size = rules.size();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param message
+	 * @return The first rule that matches the message, or null
+	 */
+	public Rule match(Message message) {
+		if (size == 0 || message == null)
+			return null;
+		Entry best = null;
+		String source = message.getSource();
+		for (int s = 0; s < 2; s++) {
+			Map<String, Map<String, Entry[]>> byDestination = lookUp(index, source, s);
+			if (byDestination == null)
+				continue;
+			String destination = message.getDestination();
+			for (int d = 0; d < 2; d++) {
+				Map<String, Entry[]> byKind = lookUp(byDestination, destination, d);
+				if (byKind == null)
+					continue;
+				String kind = message.getKind();
+				for (int k = 0; k < 2; k++) {
+					Entry[] bucket = lookUp(byKind, kind, k);
+					if (bucket == null)
+						continue;
+					// Buckets are in configuration order: only the first match
+					// of each can win
+					for (Entry entry : bucket) {
+						if (best != null && entry.position > best.position)
+							break;
+						if (entry.rule.matches(message)) {
+							best = entry;
+							break;
+						}
+					}
+				}
+			}
+		}
+		return (best == null) ? null : best.rule;
+	}
+
+	/**
+	 * @param map
+	 * @param value
+	 *            Field of the message
+	 * @param pass
+	 *            0 for the rules on the value, 1 for the rules that leave the
+	 *            field unset
+	 * @return The bucket, or null if there is none or it was already visited
+	 */
+	private static <T> T lookUp(Map<String, T> map, String value, int pass) {
+		if (pass == 0)
+			return (value == null) ? null : map.get(value);
+		return map.get(null);
+	}
+}
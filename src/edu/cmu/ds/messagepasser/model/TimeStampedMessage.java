@@ -1,6 +1,6 @@
 package edu.cmu.ds.messagepasser.model;
 
-import java.util.ArrayList;
+import edu.cmu.ds.messagepasser.clock.VectorTimeStamp;
 
 public class TimeStampedMessage extends Message implements Comparable<TimeStampedMessage> {
 	/**
@@ -8,10 +8,25 @@ public class TimeStampedMessage extends Message implements Comparable<TimeStampe
 	 */
 	private static final long serialVersionUID = 1L;
 	private Object timeStamp = null;
-	private static final int MULTICAST_MSG_MULTICASTER_NAME_INDEX = 2;
-	private static final int MULTICAST_MSG_GROUP_NAME_INDEX = 4;
-	private static final int MULTICAST_MSG_SEQUENCE_NUMBER_INDEX = 6;
 	private MutualExclusionCommand meCommand = null;
+	/*
+	 * Multicast header, null for point-to-point messages
+	 */
+	private String multicasterName = null;
+	private String multicastGroupName = null;
+	private Integer multicastSequenceNumber = null;
+	/*
+	 * Position in the total order of a group, null if not ordered
+	 */
+	private Long orderStamp = null;
+	/*
+	 * Lock a mutual exclusion message is about, null for the default lock
+	 */
+	private String lockName = null;
+	/*
+	 * Fencing token of a mutual exclusion grant or release, null if none
+	 */
+	private Long fencingToken = null;
 
 	public TimeStampedMessage() {
 		super();
@@ -21,6 +36,12 @@ public class TimeStampedMessage extends Message implements Comparable<TimeStampe
 		super((Message) target);
 		this.timeStamp = target.timeStamp;
 		this.meCommand = target.meCommand;
+		this.multicasterName = target.multicasterName;
+		this.multicastGroupName = target.multicastGroupName;
+		this.multicastSequenceNumber = target.multicastSequenceNumber;
+		this.orderStamp = target.orderStamp;
+		this.lockName = target.lockName;
+		this.fencingToken = target.fencingToken;
 	}
 
 	public TimeStampedMessage(String destination, String kind, Object body) {
@@ -39,41 +60,87 @@ public class TimeStampedMessage extends Message implements Comparable<TimeStampe
 	public String toString() {
 		return "TimeStampedMessage[" + "\n\ttimeStamp = " + timeStamp + "\n\tsource = " + source + "\n\tdestination = "
 				+ destination + "\n\tsequenceNumber = " + sequenceNumber + "\n\tisDuplicate = " + isDuplicate
-				+ "\n\tkind = " + kind + "\n\tbody = " + (String) data + "\n\tmeCommand = " + meCommand + "\n]";
+				+ "\n\tkind = " + kind + getMulticastHeaderString() + "\n\tbody = " + getDataString()
+				+ "\n\tmeCommand = " + meCommand + getMutexString() + "\n]";
+	}
+
+	private String getMulticastHeaderString() {
+		if (multicasterName == null)
+			return "";
+		return "\n\tmulticast = " + multicasterName + " to " + multicastGroupName + " #" + multicastSequenceNumber
+				+ (orderStamp == null ? "" : "\n\torderStamp = " + orderStamp);
+	}
+
+	private String getMutexString() {
+		if (meCommand == null || multicasterName != null)
+			return "";
+		return (lockName == null ? "" : "\n\tlock = " + lockName)
+				+ (orderStamp == null ? "" : "\n\torderStamp = " + orderStamp)
+				+ (fencingToken == null ? "" : "\n\tfencingToken = " + fencingToken);
 	}
 
 	public String getMulticasterName() {
-		if (!kind.equals("multicast"))
-			return null;
-		try {
-			return ((String) data).split(" ")[MULTICAST_MSG_MULTICASTER_NAME_INDEX];
-		} catch (Exception e) {
-			return null;
-		}
+		return multicasterName;
+	}
+
+	public void setMulticasterName(String multicasterName) {
+		this.multicasterName = multicasterName;
 	}
 
 	public String getMulticastGroupName() {
-		if (!kind.equals("multicast"))
-			return null;
-		try {
-			return ((String) data).split(" ")[MULTICAST_MSG_GROUP_NAME_INDEX];
-		} catch (Exception e) {
-			return null;
-		}
+		return multicastGroupName;
 	}
 
-	public String getMulticastSequenceNumber() {
-		if (!kind.equals("multicast"))
-			return null;
-		try {
-			return ((String) data).split(" ")[MULTICAST_MSG_SEQUENCE_NUMBER_INDEX];
-		} catch (Exception e) {
-			return null;
-		}
+	public void setMulticastGroupName(String multicastGroupName) {
+		this.multicastGroupName = multicastGroupName;
+	}
+
+	public Integer getMulticastSequenceNumber() {
+		return multicastSequenceNumber;
+	}
+
+	public void setMulticastSequenceNumber(Integer multicastSequenceNumber) {
+		this.multicastSequenceNumber = multicastSequenceNumber;
+	}
+
+	public Long getOrderStamp() {
+		return orderStamp;
 	}
 
+	public void setOrderStamp(Long orderStamp) {
+		this.orderStamp = orderStamp;
+	}
+
+	public String getLockName() {
+		return lockName;
+	}
+
+	public void setLockName(String lockName) {
+		this.lockName = lockName;
+	}
+
+	public Long getFencingToken() {
+		return fencingToken;
+	}
+
+	public void setFencingToken(Long fencingToken) {
+		this.fencingToken = fencingToken;
+	}
+
+	/**
+	 * Set the multicast header. The source must already be set, since it
+	 * becomes the multicaster. A descriptive body is added only if the message
+	 * has no data of its own.
+	 * 
+	 * @param group
+	 * @param sequenceNumber
+	 */
 	public void setMulticastMessageBody(String group, int sequenceNumber) {
-		data = "Multicast from " + source + " to " + group + " MulticastSequenceNumber " + sequenceNumber;
+		multicasterName = source;
+		multicastGroupName = group;
+		multicastSequenceNumber = sequenceNumber;
+		if (data == null)
+			data = "Multicast from " + source + " to " + group + " MulticastSequenceNumber " + sequenceNumber;
 	}
 
 	public MutualExclusionCommand getMeCommand() {
@@ -85,7 +152,6 @@ public class TimeStampedMessage extends Message implements Comparable<TimeStampe
 	}
 
 	@Override
-	@SuppressWarnings("unchecked")
 	public int compareTo(TimeStampedMessage o) {
 		if (this.timeStamp instanceof Integer) {
 			Integer thisTimeStamp = (Integer) this.timeStamp;
@@ -93,28 +159,19 @@ public class TimeStampedMessage extends Message implements Comparable<TimeStampe
 			if (thisTimeStamp.compareTo(anotherTimeStamp) == 0)
 				return this.source.compareTo(o.source);
 			else
-				thisTimeStamp.compareTo(anotherTimeStamp);
-		} else if (this.timeStamp instanceof ArrayList<?>) {
-			ArrayList<Integer> thisTimeStamp = (ArrayList<Integer>) this.timeStamp;
-			ArrayList<Integer> anotherTimeStamp = (ArrayList<Integer>) o.timeStamp;
-			boolean isLessOrEqual = true;
-			boolean isMoreOrEqual = true;
-			for (int i = 0; i < thisTimeStamp.size(); i++) {
-				if (thisTimeStamp.get(i) > anotherTimeStamp.get(i))
-					isLessOrEqual = false;
-				if (thisTimeStamp.get(i) < anotherTimeStamp.get(i))
-					isMoreOrEqual = false;
-			}
-			if (isLessOrEqual == isMoreOrEqual)
-				return this.source.compareTo(o.source);
-			else if (isLessOrEqual)
+				return thisTimeStamp.compareTo(anotherTimeStamp);
+		} else if (this.timeStamp instanceof VectorTimeStamp) {
+			switch (((VectorTimeStamp) this.timeStamp).compare((VectorTimeStamp) o.timeStamp)) {
+			case BEFORE:
 				return -1;
-			else
+			case AFTER:
 				return 1;
+			default:
+				return this.source.compareTo(o.source);
+			}
 		} else {
 			throw new RuntimeException("This and that time stamp are not the same type!");
 		}
-		return 0;
 	}
 
 }
@@ -0,0 +1,182 @@
+package edu.cmu.ds.messagepasser.multicast;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import edu.cmu.ds.messagepasser.clock.VectorClock;
+import edu.cmu.ds.messagepasser.clock.VectorTimeStamp;
+import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
+
+/**
+ * Hold-back queue for causally ordered multicast in one group
+ *
+ * Messages are kept per multicaster and keyed by their own vector entry, so the
+ * next message a multicaster j can deliver is found with a single lookup of
+ * local[j] + 1. A message that is next in line but still depends on a message
+ * from another member k waits on k. Delivering a message from k only
+ * re-examines the next message of k and the messages waiting on k reaching
+ * that count, so draining a backlog is close to linear in its size.
+ *
+ * Not thread safe.
+ */
+public class CausalHoldBackQueue {
+	private final VectorClock clock;
+	/*
+	 * pending.get(j): messages from member j by their V[j]
+	 */
+	private final List<Map<Integer, TimeStampedMessage>> pending;
+	/*
+	 * waiters.get(k): members whose next message needs local[k] to reach a
+	 * given value, by that value
+	 */
+	private final List<TreeMap<Integer, List<Integer>>> waiters;
+	private int size = 0;
+
+	/**
+	 * @param clock
+	 *            Group clock counting the messages delivered from each member.
+	 *            The queue increments it on delivery.
+	 */
+	public CausalHoldBackQueue(VectorClock clock) {
+		this.clock = clock;
+		int memberCount = clock.size();
+		pending = new ArrayList<Map<Integer, TimeStampedMessage>>(memberCount);
+		waiters = new ArrayList<TreeMap<Integer, List<Integer>>>(memberCount);
+		for (int i = 0; i < memberCount; i++) {
+			pending.add(new HashMap<Integer, TimeStampedMessage>());
+			waiters.add(new TreeMap<Integer, List<Integer>>());
+		}
+	}
+
+	/**
+	 * Hold back a message, then deliver every message that became deliverable
+	 *
+	 * @param message
+	 * @param senderIndex
+	 *            Group index of the multicaster
+	 * @return Delivered messages in causal order. Each one has already been
+	 *         counted in the group clock.
+	 */
+	public List<TimeStampedMessage> add(TimeStampedMessage message, int senderIndex) {
+		List<TimeStampedMessage> delivered = new ArrayList<TimeStampedMessage>();
+		int sequence = ((VectorTimeStamp) message.getTimeStamp()).get(senderIndex);
+		// Already delivered
+		if (sequence <= clock.get(senderIndex))
+			return delivered;
+		Map<Integer, TimeStampedMessage> fromSender = pending.get(senderIndex);
+		// Already held back
+		if (fromSender.containsKey(sequence))
+			return delivered;
+		fromSender.put(sequence, message);
+		size++;
+		if (sequence == clock.get(senderIndex) + 1) {
+			ArrayDeque<Integer> candidates = new ArrayDeque<Integer>();
+			candidates.add(senderIndex);
+			deliverCandidates(candidates, delivered);
+		}
+		return delivered;
+	}
+
+	/**
+	 * @param message
+	 * @param senderIndex
+	 *            Group index of the multicaster
+	 * @return True if the message has been delivered or is held back
+	 */
+	public boolean contains(TimeStampedMessage message, int senderIndex) {
+		int sequence = ((VectorTimeStamp) message.getTimeStamp()).get(senderIndex);
+		return sequence <= clock.get(senderIndex) || pending.get(senderIndex).containsKey(sequence);
+	}
+
+	/**
+	 * @return Number of messages held back
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Find the gaps the queue is stuck on
+	 * 
+	 * @return Group indices of the members whose next message is needed, by
+	 *         itself or by a message of another member, but not held back
+	 */
+	public List<Integer> getMissingSenders() {
+		List<Integer> missing = new ArrayList<Integer>();
+		for (int k = 0; k < pending.size(); k++) {
+			boolean needed = !pending.get(k).isEmpty() || !waiters.get(k).isEmpty();
+			if (needed && !pending.get(k).containsKey(clock.get(k) + 1))
+				missing.add(k);
+		}
+		return missing;
+	}
+
+	/**
+	 * Try the next message of every candidate multicaster. Each delivery adds
+	 * the multicasters it may have unblocked.
+	 *
+	 * @param candidates
+	 * @param delivered
+	 */
+	private void deliverCandidates(ArrayDeque<Integer> candidates, List<TimeStampedMessage> delivered) {
+		while (!candidates.isEmpty()) {
+			int j = candidates.poll();
+			int next = clock.get(j) + 1;
+			TimeStampedMessage message = pending.get(j).get(next);
+			if (message == null)
+				continue;
+			VectorTimeStamp timeStamp = (VectorTimeStamp) message.getTimeStamp();
+			int blockingIndex = findBlockingIndex(timeStamp, j);
+			if (blockingIndex >= 0) {
+				// Wait until local[k] reaches V[k]
+				addWaiter(blockingIndex, timeStamp.get(blockingIndex), j);
+				continue;
+			}
+			pending.get(j).remove(next);
+			size--;
+			// Vi[j] := Vi[j] + 1
+			clock.incTimeStamp(j);
+			delivered.add(message);
+			// The next message of j, and anything waiting for j to reach this
+			// count, may be deliverable now
+			candidates.add(j);
+			wakeWaiters(j, next, candidates);
+		}
+	}
+
+	/**
+	 * @param timeStamp
+	 * @param senderIndex
+	 * @return First k != j with V[k] > local[k], -1 if there is none
+	 */
+	private int findBlockingIndex(VectorTimeStamp timeStamp, int senderIndex) {
+		for (int k = 0; k < timeStamp.size(); k++) {
+			if (k != senderIndex && timeStamp.get(k) > clock.get(k))
+				return k;
+		}
+		return -1;
+	}
+
+	private void addWaiter(int index, int value, int waitingSender) {
+		TreeMap<Integer, List<Integer>> byValue = waiters.get(index);
+		List<Integer> senders = byValue.get(value);
+		if (senders == null) {
+			senders = new ArrayList<Integer>(2);
+			byValue.put(value, senders);
+		}
+		senders.add(waitingSender);
+	}
+
+	private void wakeWaiters(int index, int value, ArrayDeque<Integer> candidates) {
+		Iterator<List<Integer>> iter = waiters.get(index).headMap(value, true).values().iterator();
+		while (iter.hasNext()) {
+			candidates.addAll(iter.next());
+			iter.remove();
+		}
+	}
+}
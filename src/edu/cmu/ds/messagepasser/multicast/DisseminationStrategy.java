@@ -0,0 +1,63 @@
+package edu.cmu.ds.messagepasser.multicast;
+
+import java.util.List;
+
+import edu.cmu.ds.messagepasser.model.Group;
+
+/**
+ * How a multicast travels through its group
+ *
+ * The multicaster sends the message to its targets, and every member sends it
+ * on to its own targets the first time it receives it. Delivery order is left
+ * to the hold-back queue, so every strategy gives the same causal guarantees.
+ */
+public abstract class DisseminationStrategy {
+	public static final String DEFAULT_NAME = NackDissemination.NAME;
+
+	/**
+	 * @return Name used to select this strategy in the configuration file
+	 */
+	public abstract String getName();
+
+	/**
+	 * Members to send a multicast to
+	 * 
+	 * @param group
+	 * @param localName
+	 * @param multicaster
+	 * @param from
+	 *            Member the message was received from, the local node for its
+	 *            own multicasts
+	 * @return
+	 */
+	public abstract List<String> getTargets(Group group, String localName, String multicaster, String from);
+
+	/**
+	 * @return True if members must exchange digests to repair the messages this
+	 *         strategy may not bring to everyone
+	 */
+	public boolean needsAntiEntropy() {
+		return true;
+	}
+
+	/**
+	 * Create the strategy configured for a group
+	 * 
+	 * @param group
+	 * @return
+	 */
+	public static DisseminationStrategy forGroup(Group group) {
+		String name = group.getDissemination() == null ? DEFAULT_NAME : group.getDissemination().trim();
+		if (name.equals(NackDissemination.NAME))
+			return new NackDissemination();
+		if (name.equals(FloodDissemination.NAME))
+			return new FloodDissemination();
+		if (name.equals(TreeDissemination.NAME))
+			return new TreeDissemination(group.getFanout() == null ? TreeDissemination.DEFAULT_FANOUT : group
+					.getFanout());
+		if (name.equals(GossipDissemination.NAME))
+			return new GossipDissemination(group.getFanout() == null ? GossipDissemination.DEFAULT_FANOUT : group
+					.getFanout());
+		throw new IllegalArgumentException("Unknown dissemination '" + name + "' for " + group.getName());
+	}
+}
@@ -0,0 +1,72 @@
+package edu.cmu.ds.messagepasser.multicast;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Duplicate suppression for the multicasts of one group
+ *
+ * Every multicaster numbers its multicasts to a group 1, 2, 3... For each
+ * multicaster the filter keeps a watermark below which every number has been
+ * seen, plus a 64-bit bitmap of the numbers seen just above it. Memory is
+ * constant per member no matter how long the node runs.
+ *
+ * A number more than 64 above the watermark cannot be recorded. Callers must
+ * check isBeyondWindow() first and find out some other way whether such a
+ * multicast was seen, from the hold-back queue for example, before relaying it.
+ *
+ * Not thread safe.
+ */
+public class DuplicateFilter {
+	public static final int WINDOW_SIZE = 64;
+
+	private static class Window {
+		int watermark = 0;
+		long seen = 0L;
+	}
+
+	private final Map<String, Window> windows = new HashMap<String, Window>();
+
+	/**
+	 * @param multicaster
+	 * @param sequenceNumber
+	 * @return True if the receipt of the multicast cannot be recorded
+	 */
+	public boolean isBeyondWindow(String multicaster, int sequenceNumber) {
+		Window window = windows.get(multicaster);
+		int watermark = (window == null) ? 0 : window.watermark;
+		return sequenceNumber - watermark - 1 >= WINDOW_SIZE;
+	}
+
+	/**
+	 * Record the receipt of a multicast
+	 *
+	 * @param multicaster
+	 * @param sequenceNumber
+	 *            Multicast sequence number assigned by the multicaster
+	 * @return True if this is the first receipt, or if the number is beyond
+	 *         the window and was not recorded
+	 */
+	public boolean markReceived(String multicaster, int sequenceNumber) {
+		Window window = windows.get(multicaster);
+		if (window == null) {
+			window = new Window();
+			windows.put(multicaster, window);
+		}
+		if (sequenceNumber <= window.watermark)
+			return false;
+		int offset = sequenceNumber - window.watermark - 1;
+		if (offset >= WINDOW_SIZE)
+			return true;
+		long bit = 1L << offset;
+		if ((window.seen & bit) != 0)
+			return false;
+		window.seen |= bit;
+		// Slide the window over every contiguous number received
+		while ((window.seen & 1L) != 0) {
+			window.watermark++;
+			window.seen >>>= 1;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,35 @@
+package edu.cmu.ds.messagepasser.multicast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.cmu.ds.messagepasser.model.Group;
+
+/**
+ * Reliable multicast by flooding: every member relays to every other member.
+ * Survives the failure of any relay without repair, at a cost of about n^2
+ * messages per multicast.
+ */
+public class FloodDissemination extends DisseminationStrategy {
+	public static final String NAME = "flood";
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public List<String> getTargets(Group group, String localName, String multicaster, String from) {
+		List<String> targets = new ArrayList<String>(group.size());
+		for (String member : group.getMembers()) {
+			if (!member.equals(localName) && !member.equals(multicaster) && !member.equals(from))
+				targets.add(member);
+		}
+		return targets;
+	}
+
+	@Override
+	public boolean needsAntiEntropy() {
+		return false;
+	}
+}
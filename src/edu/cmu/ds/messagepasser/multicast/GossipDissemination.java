@@ -0,0 +1,49 @@
+package edu.cmu.ds.messagepasser.multicast;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import edu.cmu.ds.messagepasser.model.Group;
+
+/**
+ * Multicast by gossip: every member sends to a few random members the first
+ * time it receives a message, so a multicast costs about n * fanout messages.
+ * Members the rumor misses are repaired by anti-entropy.
+ */
+public class GossipDissemination extends DisseminationStrategy {
+	public static final String NAME = "gossip";
+	public static final int DEFAULT_FANOUT = 3;
+
+	private final int fanout;
+	private final Random random = new Random();
+
+	/**
+	 * @param fanout
+	 *            Members to send to on first receipt
+	 */
+	public GossipDissemination(int fanout) {
+		if (fanout < 1)
+			throw new IllegalArgumentException("Gossip fanout must be at least 1");
+		this.fanout = fanout;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public List<String> getTargets(Group group, String localName, String multicaster, String from) {
+		List<String> candidates = new ArrayList<String>(group.size());
+		for (String member : group.getMembers()) {
+			if (!member.equals(localName) && !member.equals(multicaster) && !member.equals(from))
+				candidates.add(member);
+		}
+		if (candidates.size() <= fanout)
+			return candidates;
+		Collections.shuffle(candidates, random);
+		return new ArrayList<String>(candidates.subList(0, fanout));
+	}
+}
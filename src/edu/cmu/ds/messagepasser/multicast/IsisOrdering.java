@@ -0,0 +1,247 @@
+package edu.cmu.ds.messagepasser.multicast;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import edu.cmu.ds.messagepasser.model.Group;
+import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
+
+/**
+ * Decentralized total order by proposed and agreed priorities (ISIS)
+ *
+ * Every member proposes a priority for each multicast it delivers causally and
+ * sends it to the multicaster, which picks the largest proposal as the agreed
+ * priority and sends it to all members. A multicast is delivered once its
+ * priority is agreed and no multicast with a smaller priority is still waiting.
+ * Priorities are number * group size + member index, so they never tie. It
+ * costs 2(n - 1) extra messages per multicast, spread over all members.
+ *
+ * Lost control messages are repaired on the group timer. A member proposes
+ * again for every multicast still not agreed since the previous tick, and the
+ * multicaster answers a proposal for a multicast it already agreed with the
+ * agreed priority. Members acknowledge agreements with an agree message about
+ * the multicaster's own multicast, whose sequence number is the last one they
+ * have every agreement up to. The multicaster sends agreements older than a
+ * tick again to the members that have not acknowledged them, and forgets them
+ * once every member has; a member acknowledges again on a repeated agreement.
+ */
+public class IsisOrdering extends TotalOrdering {
+	public static final String NAME = "isis";
+
+	private static class Pending {
+		final TimeStampedMessage message;
+		long priority;
+		boolean agreed = false;
+		/*
+		 * Still not agreed at the previous tick
+		 */
+		boolean stale = false;
+
+		Pending(TimeStampedMessage message, long priority) {
+			this.message = message;
+			this.priority = priority;
+		}
+	}
+
+	private final int memberIndex;
+	private final int memberCount;
+	private long largestNumber = 0;
+	/*
+	 * Undelivered multicasts by priority, and by key
+	 */
+	private final TreeMap<Long, Pending> queue = new TreeMap<Long, Pending>();
+	private final Map<String, Pending> pendingByKey = new HashMap<String, Pending>();
+	/*
+	 * Proposals collected for the local node's own multicasts, by sequence
+	 * number
+	 */
+	private final Map<Integer, Proposals> proposals = new HashMap<Integer, Proposals>();
+	/*
+	 * Agreed priorities of the local node's own multicasts not yet acknowledged
+	 * by every member, by sequence number, and what each member acknowledged
+	 */
+	private final TreeMap<Integer, Agreement> agreed = new TreeMap<Integer, Agreement>();
+	private final int[] acknowledged;
+	/*
+	 * Per multicaster: last sequence number proposed for, and last
+	 * acknowledged
+	 */
+	private final Map<String, Integer> lastProposed = new HashMap<String, Integer>();
+	private final Map<String, Integer> lastAcknowledged = new HashMap<String, Integer>();
+
+	private long tick = 0;
+
+	private static class Proposals {
+		final Set<String> proposers = new HashSet<String>();
+		long max = 0;
+	}
+
+	private static class Agreement {
+		final TimeStampedMessage message;
+		final long priority;
+		final long tick;
+
+		Agreement(TimeStampedMessage message, long priority, long tick) {
+			this.message = message;
+			this.priority = priority;
+			this.tick = tick;
+		}
+	}
+
+	public IsisOrdering(Group group, String localName) {
+		super(group, localName);
+		this.memberIndex = group.indexOf(localName);
+		this.memberCount = group.size();
+		this.acknowledged = new int[memberCount];
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public List<TimeStampedMessage> onCausalDelivery(TimeStampedMessage message, List<TimeStampedMessage> outbox) {
+		long proposal = ++largestNumber * memberCount + memberIndex;
+		Pending pending = new Pending(message, proposal);
+		queue.put(proposal, pending);
+		pendingByKey.put(getKey(message), pending);
+		String multicaster = message.getMulticasterName();
+		if (multicaster.equals(localName)) {
+			proposals.put(message.getMulticastSequenceNumber(), new Proposals());
+		} else {
+			Integer last = lastProposed.get(multicaster);
+			if (last == null || last < message.getMulticastSequenceNumber())
+				lastProposed.put(multicaster, message.getMulticastSequenceNumber());
+		}
+		outbox.add(createControlMessage(PROPOSE_KIND, multicaster, message, proposal));
+		return new ArrayList<TimeStampedMessage>();
+	}
+
+	@Override
+	public List<TimeStampedMessage> onControlMessage(TimeStampedMessage message, List<TimeStampedMessage> outbox) {
+		Long priority = message.getOrderStamp();
+		if (priority == null)
+			return new ArrayList<TimeStampedMessage>();
+		if (PROPOSE_KIND.equals(message.getKind())) {
+			collectProposal(message, priority, outbox);
+			return new ArrayList<TimeStampedMessage>();
+		}
+		if (AGREE_KIND.equals(message.getKind()) && message.getMulticasterName().equals(localName)
+				&& !message.getSource().equals(localName)) {
+			onAcknowledgement(message);
+			return new ArrayList<TimeStampedMessage>();
+		}
+		if (AGREE_KIND.equals(message.getKind())) {
+			Pending pending = pendingByKey.remove(getKey(message));
+			if (pending != null) {
+				queue.remove(pending.priority);
+				pending.priority = priority;
+				pending.agreed = true;
+				queue.put(priority, pending);
+				largestNumber = Math.max(largestNumber, priority / memberCount);
+			} else {
+				// Repeated: the acknowledgement may have been lost
+				lastAcknowledged.remove(message.getMulticasterName());
+			}
+		}
+		return deliverAgreed();
+	}
+
+	@Override
+	public void onTimer(List<TimeStampedMessage> outbox) {
+		tick++;
+		// Agree again with the members that have not acknowledged
+		List<String> members = group.getMembers();
+		for (Agreement agreement : agreed.values()) {
+			if (agreement.tick >= tick - 1)
+				continue;
+			for (int k = 0; k < memberCount; k++) {
+				if (k != memberIndex && acknowledged[k] < agreement.message.getMulticastSequenceNumber())
+					outbox.add(createControlMessage(AGREE_KIND, members.get(k), agreement.message,
+							agreement.priority));
+			}
+		}
+		// Propose again for what is still not agreed since the previous tick
+		for (Pending pending : pendingByKey.values()) {
+			String multicaster = pending.message.getMulticasterName();
+			if (pending.stale && !multicaster.equals(localName))
+				outbox.add(createControlMessage(PROPOSE_KIND, multicaster, pending.message, pending.priority));
+			pending.stale = true;
+		}
+		// Acknowledge the agreements received in full since the previous tick
+		Map<String, Integer> complete = new HashMap<String, Integer>(lastProposed);
+		for (Pending pending : pendingByKey.values()) {
+			String multicaster = pending.message.getMulticasterName();
+			Integer before = complete.get(multicaster);
+			if (before != null && before >= pending.message.getMulticastSequenceNumber())
+				complete.put(multicaster, pending.message.getMulticastSequenceNumber() - 1);
+		}
+		for (Map.Entry<String, Integer> entry : complete.entrySet()) {
+			Integer last = lastAcknowledged.get(entry.getKey());
+			if (last != null && last >= entry.getValue())
+				continue;
+			lastAcknowledged.put(entry.getKey(), entry.getValue());
+			outbox.add(createControlMessage(AGREE_KIND, entry.getKey(), entry.getKey(), entry.getValue(), 0));
+		}
+	}
+
+	/**
+	 * Collect a proposal for one of the local node's own multicasts. Each
+	 * member counts once. A proposal for a multicast already agreed is
+	 * answered with the agreed priority.
+	 */
+	private void collectProposal(TimeStampedMessage message, long priority, List<TimeStampedMessage> outbox) {
+		if (!message.getMulticasterName().equals(localName))
+			return;
+		Integer sequenceNumber = message.getMulticastSequenceNumber();
+		Agreement agreement = agreed.get(sequenceNumber);
+		if (agreement != null) {
+			outbox.add(createControlMessage(AGREE_KIND, message.getSource(), message, agreement.priority));
+			return;
+		}
+		Proposals collected = proposals.get(sequenceNumber);
+		if (collected == null || !collected.proposers.add(message.getSource()))
+			return;
+		collected.max = Math.max(collected.max, priority);
+		if (collected.proposers.size() < memberCount)
+			return;
+		proposals.remove(sequenceNumber);
+		agreed.put(sequenceNumber, new Agreement(message, collected.max, tick));
+		for (String member : group.getMembers()) {
+			outbox.add(createControlMessage(AGREE_KIND, member, message, collected.max));
+		}
+	}
+
+	/**
+	 * A member has every agreement of the local node's multicasts up to a
+	 * sequence number: forget those every member has
+	 */
+	private void onAcknowledgement(TimeStampedMessage message) {
+		int senderIndex = group.indexOf(message.getSource());
+		if (senderIndex < 0)
+			return;
+		acknowledged[senderIndex] = Math.max(acknowledged[senderIndex], message.getMulticastSequenceNumber());
+		int everyone = Integer.MAX_VALUE;
+		for (int k = 0; k < memberCount; k++) {
+			if (k != memberIndex)
+				everyone = Math.min(everyone, acknowledged[k]);
+		}
+		agreed.headMap(everyone, true).clear();
+	}
+
+	private List<TimeStampedMessage> deliverAgreed() {
+		List<TimeStampedMessage> delivered = new ArrayList<TimeStampedMessage>();
+		while (!queue.isEmpty() && queue.firstEntry().getValue().agreed) {
+			Pending pending = queue.pollFirstEntry().getValue();
+			pending.message.setOrderStamp(pending.priority);
+			delivered.add(pending.message);
+		}
+		return delivered;
+	}
+}
@@ -0,0 +1,173 @@
+package edu.cmu.ds.messagepasser.multicast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.cmu.ds.messagepasser.clock.VectorClock;
+import edu.cmu.ds.messagepasser.model.Group;
+
+/**
+ * Multicast state of one group the local node is a member of
+ *
+ * Each group is processed independently: the hold-back queue, duplicate filter,
+ * history, stability tracker, total ordering, gap tracking and the members heard
+ * from must only be used while holding the lock of this object, so traffic of
+ * different groups never waits on the same lock. The clock and the sequence numbers can be read
+ * without it.
+ */
+public class MulticastGroup {
+	private final Group group;
+	private final VectorClock clock;
+	private final CausalHoldBackQueue holdBackQueue;
+	private final DuplicateFilter duplicateFilter = new DuplicateFilter();
+	private final DisseminationStrategy disseminationStrategy;
+	private final MulticastHistory history;
+	private final StabilityTracker stabilityTracker;
+	private final int localIndex;
+	private final TotalOrdering totalOrdering;
+	private final AtomicInteger multicastSequenceNumber = new AtomicInteger(0); // First sequence number is 1
+	/*
+	 * stalledAt[k]: messages delivered from member k when its next message was
+	 * last found missing, -1 if it was not missing
+	 */
+	private final int[] stalledAt;
+	/*
+	 * Members this node has received group traffic from
+	 */
+	private final boolean[] heardFrom;
+	/*
+	 * Held while sending the multicasts of the local node, outside the group
+	 * lock, so that they leave in time stamp order
+	 */
+	private final Object sendLock = new Object();
+
+	/**
+	 * @param group
+	 * @param localName
+	 *            Must be a member of the group
+	 */
+	public MulticastGroup(Group group, String localName) {
+		this.group = group;
+		// Sized and indexed by the group's own member list
+		this.clock = new VectorClock(group.size(), group.indexOf(localName));
+		this.holdBackQueue = new CausalHoldBackQueue(clock);
+		this.disseminationStrategy = DisseminationStrategy.forGroup(group);
+		this.history = new MulticastHistory(group.size(), MulticastHistory.DEFAULT_MAX_CAPACITY);
+		this.stabilityTracker = new StabilityTracker(group.size());
+		this.localIndex = group.indexOf(localName);
+		this.totalOrdering = TotalOrdering.forGroup(group, localName);
+		this.stalledAt = new int[group.size()];
+		Arrays.fill(stalledAt, -1);
+		this.heardFrom = new boolean[group.size()];
+	}
+
+	public String getName() {
+		return group.getName();
+	}
+
+	public Group getGroup() {
+		return group;
+	}
+
+	public VectorClock getClock() {
+		return clock;
+	}
+
+	public Object getSendLock() {
+		return sendLock;
+	}
+
+	public CausalHoldBackQueue getHoldBackQueue() {
+		return holdBackQueue;
+	}
+
+	public DuplicateFilter getDuplicateFilter() {
+		return duplicateFilter;
+	}
+
+	public DisseminationStrategy getDisseminationStrategy() {
+		return disseminationStrategy;
+	}
+
+	public MulticastHistory getHistory() {
+		return history;
+	}
+
+	public StabilityTracker getStabilityTracker() {
+		return stabilityTracker;
+	}
+
+	/**
+	 * Remember that a member is running
+	 * 
+	 * @param member
+	 */
+	public void markHeardFrom(String member) {
+		int index = group.indexOf(member);
+		if (index >= 0)
+			heardFrom[index] = true;
+	}
+
+	/**
+	 * @param member
+	 * @return True if this node has received group traffic from the member
+	 */
+	public boolean hasHeardFrom(String member) {
+		int index = group.indexOf(member);
+		return index >= 0 && heardFrom[index];
+	}
+
+	/**
+	 * Discard the history of every message that is now stable
+	 * 
+	 * @return The stable vector
+	 */
+	public int[] discardStable() {
+		stabilityTracker.update(localIndex, clock.getTimeStamp());
+		int[] stable = stabilityTracker.getStable();
+		for (int k = 0; k < stable.length; k++) {
+			history.discardUpTo(k, stable[k]);
+		}
+		return stable;
+	}
+
+	/**
+	 * @return Null if the group only needs causal order
+	 */
+	public TotalOrdering getTotalOrdering() {
+		return totalOrdering;
+	}
+
+	/**
+	 * Find the members whose missing message was already missing at the
+	 * previous call, with nothing delivered from them since. Gaps that close
+	 * between two calls are just reordering and are not reported.
+	 * 
+	 * @return Group indices of the members to ask for a retransmission
+	 */
+	public List<Integer> findStalledSenders() {
+		List<Integer> stalled = new ArrayList<Integer>();
+		boolean[] missing = new boolean[stalledAt.length];
+		for (int k : holdBackQueue.getMissingSenders()) {
+			int delivered = clock.get(k);
+			if (stalledAt[k] == delivered)
+				stalled.add(k);
+			stalledAt[k] = delivered;
+			missing[k] = true;
+		}
+		for (int k = 0; k < stalledAt.length; k++) {
+			if (!missing[k])
+				stalledAt[k] = -1;
+		}
+		return stalled;
+	}
+
+	/**
+	 * @return Next sequence number for a multicast of the local node
+	 */
+	public int nextMulticastSequenceNumber() {
+		return multicastSequenceNumber.incrementAndGet();
+	}
+}
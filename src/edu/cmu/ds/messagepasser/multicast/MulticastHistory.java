@@ -0,0 +1,132 @@
+package edu.cmu.ds.messagepasser.multicast;
+
+import edu.cmu.ds.messagepasser.clock.VectorTimeStamp;
+import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
+
+/**
+ * Multicasts delivered from each member of a group that may still have to be
+ * retransmitted
+ *
+ * A member's messages are delivered in the order of their own vector entry, so
+ * they are kept in a ring indexed by that entry. Messages are discarded once
+ * they are causally stable, i.e. delivered by every member, so the history only
+ * holds traffic that is still in flight. The ring grows up to a maximum
+ * capacity, past which the oldest messages are overwritten and can no longer
+ * be repaired, e.g. while a member is down.
+ *
+ * Not thread safe.
+ */
+public class MulticastHistory {
+	public static final int DEFAULT_MAX_CAPACITY = 4096;
+	private static final int INITIAL_CAPACITY = 16;
+
+	private static class Ring {
+		TimeStampedMessage[] slots = new TimeStampedMessage[INITIAL_CAPACITY];
+		int head = 0;
+		// Vector entry of the message at head
+		int first = 0;
+		int count = 0;
+	}
+
+	private final Ring[] rings;
+	private final int maxCapacity;
+
+	/**
+	 * @param memberCount
+	 * @param maxCapacity
+	 *            Messages kept per member at most
+	 */
+	public MulticastHistory(int memberCount, int maxCapacity) {
+		this.rings = new Ring[memberCount];
+		for (int i = 0; i < memberCount; i++) {
+			rings[i] = new Ring();
+		}
+		this.maxCapacity = maxCapacity;
+	}
+
+	/**
+	 * @param message
+	 *            A delivered message
+	 * @param senderIndex
+	 *            Group index of its multicaster
+	 */
+	public void add(TimeStampedMessage message, int senderIndex) {
+		Ring ring = rings[senderIndex];
+		int sequence = ((VectorTimeStamp) message.getTimeStamp()).get(senderIndex);
+		if (ring.count > 0 && sequence < ring.first + ring.count)
+			return;
+		if (ring.count > 0 && sequence > ring.first + ring.count)
+			clear(ring);
+		if (ring.count == 0)
+			ring.first = sequence;
+		if (ring.count == ring.slots.length) {
+			if (ring.slots.length < maxCapacity) {
+				grow(ring);
+			} else {
+				// Overwrite the oldest message
+				ring.slots[ring.head] = null;
+				ring.head = (ring.head + 1) % ring.slots.length;
+				ring.first++;
+				ring.count--;
+			}
+		}
+		ring.slots[(ring.head + ring.count) % ring.slots.length] = message;
+		ring.count++;
+	}
+
+	/**
+	 * @param senderIndex
+	 * @param sequence
+	 *            Vector entry of the multicaster in the message
+	 * @return The message, or null if it is no longer kept
+	 */
+	public TimeStampedMessage get(int senderIndex, int sequence) {
+		Ring ring = rings[senderIndex];
+		if (sequence < ring.first || sequence >= ring.first + ring.count)
+			return null;
+		return ring.slots[(ring.head + sequence - ring.first) % ring.slots.length];
+	}
+
+	/**
+	 * Discard the messages of a member up to a vector entry, e.g. once they are
+	 * stable
+	 * 
+	 * @param senderIndex
+	 * @param sequence
+	 */
+	public void discardUpTo(int senderIndex, int sequence) {
+		Ring ring = rings[senderIndex];
+		while (ring.count > 0 && ring.first <= sequence) {
+			ring.slots[ring.head] = null;
+			ring.head = (ring.head + 1) % ring.slots.length;
+			ring.first++;
+			ring.count--;
+		}
+	}
+
+	/**
+	 * @return Number of messages kept
+	 */
+	public int size() {
+		int size = 0;
+		for (Ring ring : rings) {
+			size += ring.count;
+		}
+		return size;
+	}
+
+	private void clear(Ring ring) {
+		ring.slots = new TimeStampedMessage[INITIAL_CAPACITY];
+		ring.head = 0;
+		ring.count = 0;
+	}
+
+	private void grow(Ring ring) {
+		TimeStampedMessage[] larger = new TimeStampedMessage[Math.min(ring.slots.length * 2, maxCapacity)];
+		for (int i = 0; i < ring.count; i++) {
+			larger[i] = ring.slots[(ring.head + i) % ring.slots.length];
+		}
+		ring.slots = larger;
+		ring.head = 0;
+	}
+}
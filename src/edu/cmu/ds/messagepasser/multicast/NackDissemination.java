@@ -0,0 +1,35 @@
+package edu.cmu.ds.messagepasser.multicast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.cmu.ds.messagepasser.model.Group;
+
+/**
+ * Multicast sent once by the multicaster to every member, without relays
+ *
+ * A multicast costs n - 1 messages when nothing is lost. Members that find a
+ * gap in the messages of a multicaster send it a negative acknowledgement and
+ * it retransmits from its history; messages lost at the end of a stream are
+ * repaired by anti-entropy.
+ */
+public class NackDissemination extends DisseminationStrategy {
+	public static final String NAME = "nack";
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public List<String> getTargets(Group group, String localName, String multicaster, String from) {
+		List<String> targets = new ArrayList<String>(group.size());
+		if (!localName.equals(multicaster))
+			return targets;
+		for (String member : group.getMembers()) {
+			if (!member.equals(localName))
+				targets.add(member);
+		}
+		return targets;
+	}
+}
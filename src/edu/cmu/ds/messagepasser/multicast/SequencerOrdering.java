@@ -0,0 +1,160 @@
+package edu.cmu.ds.messagepasser.multicast;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import edu.cmu.ds.messagepasser.model.Group;
+import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
+
+/**
+ * Total order assigned by a fixed sequencer, the first member of the group
+ *
+ * The sequencer numbers multicasts in the order it delivers them causally and
+ * sends each number to the other members in an order message. Members deliver
+ * the multicasts by number. The order is therefore also causal. It costs n - 1
+ * extra messages per multicast, all sent by the sequencer.
+ *
+ * Lost order messages are repaired on the group timer. A member that has
+ * delivered something since its last report, or received a number it already
+ * delivered, sends the sequencer an order message with the next number it
+ * needs. On each tick the sequencer sends every member again the numbers from
+ * the last one it reported that are older than a tick, and it forgets the
+ * numbers every member has delivered.
+ */
+public class SequencerOrdering extends TotalOrdering {
+	public static final String NAME = "sequencer";
+
+	/**
+	 * A number given by the sequencer
+	 */
+	private static class Assignment {
+		final TimeStampedMessage message;
+		final long tick;
+
+		Assignment(TimeStampedMessage message, long tick) {
+			this.message = message;
+			this.tick = tick;
+		}
+	}
+
+	private final String sequencerName;
+	private long lastAssigned = 0;
+	private long nextToDeliver = 1;
+	/*
+	 * Causally delivered multicasts waiting for their number, by key
+	 */
+	private final Map<String, TimeStampedMessage> waiting = new HashMap<String, TimeStampedMessage>();
+	/*
+	 * Keys of numbered multicasts, by number
+	 */
+	private final Map<Long, String> numbered = new HashMap<Long, String>();
+	/*
+	 * Sequencer: numbers not yet delivered by every member, and the next number
+	 * each member needs
+	 */
+	private final TreeMap<Long, Assignment> assigned = new TreeMap<Long, Assignment>();
+	private final long[] needed;
+	private long tick = 0;
+	/*
+	 * Member: next number it needed at the last report, 0 to report again
+	 */
+	private long reportedNext = 1;
+
+	public SequencerOrdering(Group group, String localName) {
+		super(group, localName);
+		this.sequencerName = group.getMembers().get(0);
+		this.needed = new long[group.size()];
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public List<TimeStampedMessage> onCausalDelivery(TimeStampedMessage message, List<TimeStampedMessage> outbox) {
+		String key = getKey(message);
+		waiting.put(key, message);
+		if (localName.equals(sequencerName)) {
+			long number = ++lastAssigned;
+			numbered.put(number, key);
+			assigned.put(number, new Assignment(message, tick));
+			for (String member : group.getMembers()) {
+				if (!member.equals(localName))
+					outbox.add(createControlMessage(ORDER_KIND, member, message, number));
+			}
+		}
+		return deliverNumbered();
+	}
+
+	@Override
+	public List<TimeStampedMessage> onControlMessage(TimeStampedMessage message, List<TimeStampedMessage> outbox) {
+		if (!ORDER_KIND.equals(message.getKind()) || message.getOrderStamp() == null)
+			return new ArrayList<TimeStampedMessage>();
+		if (localName.equals(sequencerName)) {
+			onReport(message, outbox);
+			return new ArrayList<TimeStampedMessage>();
+		}
+		if (message.getOrderStamp() >= nextToDeliver)
+			numbered.put(message.getOrderStamp(), getKey(message));
+		else
+			reportedNext = 0;
+		return deliverNumbered();
+	}
+
+	@Override
+	public void onTimer(List<TimeStampedMessage> outbox) {
+		tick++;
+		if (!localName.equals(sequencerName)) {
+			if (nextToDeliver != reportedNext) {
+				reportedNext = nextToDeliver;
+				outbox.add(createControlMessage(ORDER_KIND, sequencerName, localName, 0, nextToDeliver));
+			}
+			return;
+		}
+		List<String> members = group.getMembers();
+		for (int k = 0; k < members.size(); k++) {
+			if (members.get(k).equals(localName))
+				continue;
+			for (Map.Entry<Long, Assignment> entry : assigned.tailMap(needed[k], true).entrySet()) {
+				if (entry.getValue().tick >= tick - 1)
+					break;
+				outbox.add(createControlMessage(ORDER_KIND, members.get(k), entry.getValue().message,
+						entry.getKey()));
+			}
+		}
+	}
+
+	/**
+	 * A member has delivered every number below the order stamp: forget the
+	 * numbers every member has delivered
+	 */
+	private void onReport(TimeStampedMessage report, List<TimeStampedMessage> outbox) {
+		int senderIndex = group.indexOf(report.getSource());
+		if (senderIndex < 0)
+			return;
+		needed[senderIndex] = Math.max(needed[senderIndex], report.getOrderStamp());
+		long everyone = nextToDeliver;
+		for (int k = 0; k < needed.length; k++) {
+			if (!group.getMembers().get(k).equals(sequencerName))
+				everyone = Math.min(everyone, needed[k]);
+		}
+		assigned.headMap(everyone, false).clear();
+	}
+
+	private List<TimeStampedMessage> deliverNumbered() {
+		List<TimeStampedMessage> delivered = new ArrayList<TimeStampedMessage>();
+		String key;
+		while ((key = numbered.get(nextToDeliver)) != null && waiting.containsKey(key)) {
+			TimeStampedMessage message = waiting.remove(key);
+			numbered.remove(nextToDeliver);
+			message.setOrderStamp(nextToDeliver);
+			delivered.add(message);
+			nextToDeliver++;
+		}
+		return delivered;
+	}
+}
@@ -0,0 +1,73 @@
+package edu.cmu.ds.messagepasser.multicast;
+
+import edu.cmu.ds.messagepasser.clock.VectorTimeStamp;
+
+/**
+ * What every member of a group is known to have delivered (a matrix clock)
+ *
+ * Row m is the latest vector of delivery counts learned from member m. It is
+ * learned for free from group traffic: the time stamp of a multicast is the
+ * delivered vector of its multicaster when it sent it, and digests carry the
+ * delivered vector of their sender. Digests also carry the stable vector their
+ * sender computed, so members that never talk to each other directly still
+ * learn about each other. The column minimum is the causally stable
+ * vector: every message of member k up to stable[k] has been delivered
+ * everywhere and will never be asked for again.
+ *
+ * Not thread safe.
+ */
+public class StabilityTracker {
+	private final int[][] delivered;
+
+	/**
+	 * @param memberCount
+	 */
+	public StabilityTracker(int memberCount) {
+		delivered = new int[memberCount][memberCount];
+	}
+
+	/**
+	 * Merge what a member is known to have delivered
+	 * 
+	 * @param memberIndex
+	 * @param timeStamp
+	 *            Delivery counts of that member, or the time stamp of one of
+	 *            its multicasts
+	 */
+	public void update(int memberIndex, VectorTimeStamp timeStamp) {
+		int[] row = delivered[memberIndex];
+		if (timeStamp.size() != row.length)
+			return;
+		for (int k = 0; k < row.length; k++) {
+			if (timeStamp.get(k) > row[k])
+				row[k] = timeStamp.get(k);
+		}
+	}
+
+	/**
+	 * Merge a stable vector computed by another member: every member has
+	 * delivered at least that much
+	 * 
+	 * @param stable
+	 */
+	public void updateStable(VectorTimeStamp stable) {
+		for (int m = 0; m < delivered.length; m++) {
+			update(m, stable);
+		}
+	}
+
+	/**
+	 * @return stable[k]: number of messages of member k delivered by every
+	 *         member
+	 */
+	public int[] getStable() {
+		int[] stable = delivered[0].clone();
+		for (int m = 1; m < delivered.length; m++) {
+			for (int k = 0; k < stable.length; k++) {
+				if (delivered[m][k] < stable[k])
+					stable[k] = delivered[m][k];
+			}
+		}
+		return stable;
+	}
+}
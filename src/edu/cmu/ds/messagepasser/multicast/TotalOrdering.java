@@ -0,0 +1,146 @@
+package edu.cmu.ds.messagepasser.multicast;
+
+import java.util.List;
+
+import edu.cmu.ds.messagepasser.model.Group;
+import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
+
+/**
+ * Total order on top of causal delivery
+ *
+ * Multicasts leaving the causal hold-back queue are held back a second time
+ * until their position in the group's total order is known, so that every
+ * member delivers them in the same order. Positions are agreed with control
+ * messages that carry the multicast header of the message they refer to and
+ * the position in their order stamp. Control messages are not part of the
+ * multicast history, so each ordering repairs its own on the group timer.
+ *
+ * Not thread safe.
+ */
+public abstract class TotalOrdering {
+	public static final String CAUSAL = "causal";
+	/*
+	 * Kinds of control messages
+	 */
+	public static final String ORDER_KIND = "order";
+	public static final String PROPOSE_KIND = "propose";
+	public static final String AGREE_KIND = "agree";
+
+	protected final Group group;
+	protected final String localName;
+
+	protected TotalOrdering(Group group, String localName) {
+		this.group = group;
+		this.localName = localName;
+	}
+
+	/**
+	 * @return Name used to select this ordering in the configuration file
+	 */
+	public abstract String getName();
+
+	/**
+	 * A multicast of the group was delivered in causal order
+	 * 
+	 * @param message
+	 * @param outbox
+	 *            Receives the control messages to send, some of which may be
+	 *            addressed to the local node
+	 * @return Messages now deliverable in total order, with their order stamp
+	 *         set
+	 */
+	public abstract List<TimeStampedMessage> onCausalDelivery(TimeStampedMessage message,
+			List<TimeStampedMessage> outbox);
+
+	/**
+	 * A control message of the group was received
+	 * 
+	 * @param message
+	 * @param outbox
+	 *            Receives the control messages to send
+	 * @return Messages now deliverable in total order, with their order stamp
+	 *         set
+	 */
+	public abstract List<TimeStampedMessage> onControlMessage(TimeStampedMessage message,
+			List<TimeStampedMessage> outbox);
+
+	/**
+	 * Called on every group check: send again the control messages that may
+	 * have been lost
+	 * 
+	 * @param outbox
+	 *            Receives the control messages to send
+	 */
+	public abstract void onTimer(List<TimeStampedMessage> outbox);
+
+	/**
+	 * @param kind
+	 * @return True for the kinds of control messages
+	 */
+	public static boolean isControlKind(String kind) {
+		return ORDER_KIND.equals(kind) || PROPOSE_KIND.equals(kind) || AGREE_KIND.equals(kind);
+	}
+
+	/**
+	 * Create the ordering configured for a group
+	 * 
+	 * @param group
+	 * @param localName
+	 * @return Null if the group only needs causal order
+	 */
+	public static TotalOrdering forGroup(Group group, String localName) {
+		String name = group.getOrdering() == null ? CAUSAL : group.getOrdering().trim();
+		if (name.equals(CAUSAL))
+			return null;
+		if (name.equals(SequencerOrdering.NAME))
+			return new SequencerOrdering(group, localName);
+		if (name.equals(IsisOrdering.NAME))
+			return new IsisOrdering(group, localName);
+		throw new IllegalArgumentException("Unknown ordering '" + name + "' for " + group.getName());
+	}
+
+	/**
+	 * @param message
+	 * @return Identifier of a multicast within its group
+	 */
+	protected static String getKey(TimeStampedMessage message) {
+		return message.getMulticasterName() + "#" + message.getMulticastSequenceNumber();
+	}
+
+	/**
+	 * Create a control message about a multicast
+	 * 
+	 * @param kind
+	 * @param destination
+	 * @param message
+	 *            The multicast it is about
+	 * @param orderStamp
+	 * @return
+	 */
+	protected TimeStampedMessage createControlMessage(String kind, String destination, TimeStampedMessage message,
+			long orderStamp) {
+		return createControlMessage(kind, destination, message.getMulticasterName(),
+				message.getMulticastSequenceNumber(), orderStamp);
+	}
+
+	/**
+	 * Create a control message with the given multicast header
+	 * 
+	 * @param kind
+	 * @param destination
+	 * @param multicasterName
+	 * @param multicastSequenceNumber
+	 * @param orderStamp
+	 * @return
+	 */
+	protected TimeStampedMessage createControlMessage(String kind, String destination, String multicasterName,
+			int multicastSequenceNumber, long orderStamp) {
+		TimeStampedMessage controlMessage = new TimeStampedMessage(destination, kind, null);
+		controlMessage.setSource(localName);
+		controlMessage.setMulticasterName(multicasterName);
+		controlMessage.setMulticastGroupName(group.getName());
+		controlMessage.setMulticastSequenceNumber(multicastSequenceNumber);
+		controlMessage.setOrderStamp(orderStamp);
+		return controlMessage;
+	}
+}
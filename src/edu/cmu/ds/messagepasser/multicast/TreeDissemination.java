@@ -0,0 +1,51 @@
+package edu.cmu.ds.messagepasser.multicast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.cmu.ds.messagepasser.model.Group;
+
+/**
+ * Multicast along a k-ary spanning tree rooted at the multicaster
+ *
+ * Members are placed in the tree by their group index, rotated so that the
+ * multicaster is the root. Each member only sends to its children, so a
+ * multicast costs n - 1 messages. Messages lost below a failed member are
+ * repaired by anti-entropy.
+ */
+public class TreeDissemination extends DisseminationStrategy {
+	public static final String NAME = "tree";
+	public static final int DEFAULT_FANOUT = 2;
+
+	private final int fanout;
+
+	/**
+	 * @param fanout
+	 *            Children per member
+	 */
+	public TreeDissemination(int fanout) {
+		if (fanout < 1)
+			throw new IllegalArgumentException("Tree fanout must be at least 1");
+		this.fanout = fanout;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public List<String> getTargets(Group group, String localName, String multicaster, String from) {
+		List<String> targets = new ArrayList<String>(fanout);
+		int size = group.size();
+		int root = group.indexOf(multicaster);
+		int self = group.indexOf(localName);
+		if (root < 0 || self < 0)
+			return targets;
+		int position = (self - root + size) % size;
+		for (int child = position * fanout + 1; child <= position * fanout + fanout && child < size; child++) {
+			targets.add(group.getMembers().get((root + child) % size));
+		}
+		return targets;
+	}
+}
@@ -0,0 +1,136 @@
+package edu.cmu.ds.messagepasser.mutex;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Pending acquisition of a named lock
+ *
+ * Completes with the handle of the acquisition as soon as the lock is
+ * acquired, or fails when the request times out or cannot be made. Cancelling
+ * it withdraws the request; a lock acquired at the same moment is released
+ * again by its owner.
+ */
+public class LockFuture implements Future<LockHandle> {
+	private final LockHandle handle;
+	private final Runnable onCancel;
+	private final CountDownLatch done = new CountDownLatch(1);
+	private boolean completed = false;
+	private boolean cancelled = false;
+	private Throwable failure = null;
+
+	/**
+	 * @param handle
+	 *            Handle to complete with
+	 * @param onCancel
+	 *            Withdraws the request when the future is cancelled
+	 */
+	public LockFuture(LockHandle handle, Runnable onCancel) {
+		this.handle = handle;
+		this.onCancel = onCancel;
+	}
+
+	/**
+	 * A future that has already failed
+	 *
+	 * @param lockName
+	 * @param failure
+	 * @return
+	 */
+	public static LockFuture failed(String lockName, Throwable failure) {
+		LockFuture future = new LockFuture(new LockHandle(lockName, false), null);
+		future.fail(failure);
+		return future;
+	}
+
+	/**
+	 * @return The handle, whether or not the lock has been acquired yet
+	 */
+	public LockHandle getHandle() {
+		return handle;
+	}
+
+	/**
+	 * The lock was acquired
+	 *
+	 * @param fencingToken
+	 * @return False if the future had already failed or been cancelled
+	 */
+	public boolean complete(long fencingToken) {
+		synchronized (this) {
+			if (completed)
+				return false;
+			completed = true;
+			handle.markAcquired(fencingToken);
+		}
+		done.countDown();
+		return true;
+	}
+
+	/**
+	 * The lock will not be acquired
+	 *
+	 * @param failure
+	 * @return False if the future was already complete
+	 */
+	public boolean fail(Throwable failure) {
+		synchronized (this) {
+			if (completed)
+				return false;
+			completed = true;
+			this.failure = failure;
+		}
+		done.countDown();
+		return true;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (completed)
+				return false;
+			completed = true;
+			cancelled = true;
+		}
+		done.countDown();
+		if (onCancel != null)
+			onCancel.run();
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return completed;
+	}
+
+	@Override
+	public LockHandle get() throws InterruptedException, ExecutionException {
+		done.await();
+		return getResult();
+	}
+
+	@Override
+	public LockHandle get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+			TimeoutException {
+		if (!done.await(timeout, unit))
+			throw new TimeoutException("Lock " + handle.getLockName() + " not acquired yet");
+		return getResult();
+	}
+
+	private synchronized LockHandle getResult() throws ExecutionException {
+		if (cancelled)
+			throw new CancellationException("Acquisition of " + handle.getLockName() + " was cancelled");
+		if (failure != null)
+			throw new ExecutionException(failure);
+		return handle;
+	}
+}
@@ -0,0 +1,117 @@
+package edu.cmu.ds.messagepasser.mutex;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One acquisition of a named lock, from the request to the release
+ *
+ * Also counts what the acquisition cost: the mutual exclusion messages this
+ * node sent or received about the lock meanwhile, the time spent waiting and
+ * the time the lock was held.
+ */
+public class LockHandle {
+	private final String lockName;
+	private final boolean shared;
+	private final long requestedAt;
+	private volatile long acquiredAt = 0;
+	private volatile long releasedAt = 0;
+	private volatile long fencingToken = 0;
+	private volatile boolean expired = false;
+	private final AtomicInteger messageCount = new AtomicInteger(0);
+
+	public LockHandle(String lockName, boolean shared) {
+		this.lockName = lockName;
+		this.shared = shared;
+		this.requestedAt = System.nanoTime();
+	}
+
+	public String getLockName() {
+		return lockName;
+	}
+
+	/**
+	 * @return True if the lock was requested shared. A lock acquired by a
+	 *         mutex that cannot share is held exclusively anyway.
+	 */
+	public boolean isShared() {
+		return shared;
+	}
+
+	void markAcquired(long fencingToken) {
+		this.fencingToken = fencingToken;
+		acquiredAt = System.nanoTime();
+	}
+
+	public void markReleased() {
+		releasedAt = System.nanoTime();
+	}
+
+	/**
+	 * The lease ran out before the lock was released: the lock may already
+	 * belong to another node
+	 */
+	public void markExpired() {
+		expired = true;
+		markReleased();
+	}
+
+	/**
+	 * @return Token to present to shared resources, larger than that of every
+	 *         earlier acquisition of the lock. 0 until acquired.
+	 */
+	public long getFencingToken() {
+		return fencingToken;
+	}
+
+	public boolean isExpired() {
+		return expired;
+	}
+
+	public void countMessage() {
+		messageCount.incrementAndGet();
+	}
+
+	public int getMessageCount() {
+		return messageCount.get();
+	}
+
+	/**
+	 * @return True once the lock has been acquired, even if since released
+	 */
+	public boolean isAcquired() {
+		return acquiredAt != 0;
+	}
+
+	public boolean isReleased() {
+		return releasedAt != 0;
+	}
+
+	/**
+	 * @param unit
+	 * @return Time from the request to the acquisition, or until now
+	 */
+	public long getWaitTime(TimeUnit unit) {
+		long end = isAcquired() ? acquiredAt : System.nanoTime();
+		return unit.convert(end - requestedAt, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param unit
+	 * @return Time from the acquisition to the release, or until now. 0 if not
+	 *         acquired.
+	 */
+	public long getHoldTime(TimeUnit unit) {
+		if (!isAcquired())
+			return 0;
+		long end = isReleased() ? releasedAt : System.nanoTime();
+		return unit.convert(end - acquiredAt, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return "LockHandle[" + lockName + (shared ? " (shared)" : "") + ", token " + fencingToken
+				+ (expired ? " (expired)" : "") + ", waited " + getWaitTime(TimeUnit.MILLISECONDS) + " ms, held "
+				+ getHoldTime(TimeUnit.MILLISECONDS) + " ms, " + getMessageCount() + " messages]";
+	}
+}
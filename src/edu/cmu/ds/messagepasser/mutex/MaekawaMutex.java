@@ -0,0 +1,614 @@
+package edu.cmu.ds.messagepasser.mutex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import edu.cmu.ds.messagepasser.model.MutualExclusionCommand;
+import edu.cmu.ds.messagepasser.model.MutualExclusionState;
+import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
+
+/**
+ * Maekawa's voting algorithm for mutual exclusion, without deadlocks
+ *
+ * A node enters the critical section once every member of its quorum has voted
+ * for its request, and a member votes for one request at a time. Messages are
+ * point to point, about 3 per quorum member and entry. Requests are ordered by
+ * (Lamport time, node name), so every node agrees on which of two requests
+ * goes first.
+ *
+ * A voter that has given its vote away and receives a request that goes first
+ * asks the holder of the vote to give it back (INQUIRE), and turns down every
+ * request that cannot be next (FAILED). A requester that has been turned down
+ * by some voter cannot enter before the request that beat it, so it gives back
+ * every vote it is asked for (YIELD). Votes therefore always flow towards the
+ * request that goes first, and a cycle of requesters waiting on each other's
+ * votes cannot last.
+ *
+ * A request is either exclusive or shared. A voter gives its vote to any
+ * number of shared requests at once, or to a single exclusive one, and since
+ * any two quorums meet, a writer never holds a lock together with anybody
+ * else. A voter never lets a request overtake one that goes first and waits
+ * for the vote, so a writer is not starved by a stream of readers: readers
+ * that come after it wait behind it.
+ *
+ * Every mutual exclusion message carries the time stamp of the request it is
+ * about in its order stamp, so messages about an earlier request are ignored.
+ * Each named lock votes and queues on its own; a lock with nothing going on is
+ * dropped from the table.
+ *
+ * Votes are leases. A voter takes its vote back once the lease has run out, so
+ * a requester that died holding votes blocks the others for one lease at most.
+ * A live requester renews the votes it holds every third of a lease (RENEW,
+ * answered by REPLY), and counts each lease from the moment it last asked for
+ * the vote, which is before the voter started it, so it gives up a lock before
+ * any of its voters do. A requester asks again, with a REQUEST, for every vote
+ * that may have run out, including one that arrived too late; the voter
+ * restarts the lease if it still holds the vote, and queues the request again
+ * if it took the vote back.
+ *
+ * Every vote carries a fencing token, and the holder of a lock gets the largest
+ * token of its quorum. Tokens come from a clock that ticks with every vote and
+ * never runs behind the wall clock or any token it has seen, and releases
+ * carry the token of the holder, so a lock acquired after another one was
+ * released or had its lease run out gets a larger token, as long as the
+ * clocks of the nodes are less than half a lease apart. A resource that
+ * rejects tokens smaller than the last one it saw is safe from a holder that
+ * outlived its lease.
+ *
+ * Thread safe. The messages returned in an outbox must be sent in order, and
+ * those addressed to the local node handled, before the next call.
+ */
+public class MaekawaMutex extends MutualExclusion {
+	public static final String NAME = "maekawa";
+	public static final int DEFAULT_LEASE_MS = 5000;
+
+	/**
+	 * State of one named lock
+	 */
+	private static class Lock {
+		/*
+		 * Requester side
+		 */
+		MutualExclusionState state = MutualExclusionState.RELEASED;
+		boolean shared = false;
+		long requestStamp = 0;
+		final Set<String> votes = new HashSet<String>();
+		boolean failed = false;
+		final Set<String> inquirers = new HashSet<String>();
+		long fencingToken = 0;
+		/*
+		 * When the local node last asked each voter for its vote, so when the
+		 * lease of the vote started at the latest, and the voters that have
+		 * not answered the last RENEW sent at renewSentAt
+		 */
+		final Map<String, Long> leaseStarts = new HashMap<String, Long>();
+		final Set<String> renewPending = new HashSet<String>();
+		long renewSentAt = 0;
+
+		/*
+		 * Voter side
+		 */
+		final Map<MutexRequest, Grant> grants = new HashMap<MutexRequest, Grant>();
+		final PriorityQueue<MutexRequest> waitingRequests = new PriorityQueue<MutexRequest>();
+		final Set<MutexRequest> turnedDown = new HashSet<MutexRequest>();
+
+		boolean isIdle() {
+			return state == MutualExclusionState.RELEASED && grants.isEmpty() && waitingRequests.isEmpty();
+		}
+
+		/**
+		 * @param request
+		 * @return True if the request can have the vote along with the
+		 *         requests that have it
+		 */
+		boolean canGrant(MutexRequest request) {
+			for (MutexRequest granted : grants.keySet()) {
+				if (granted.conflictsWith(request))
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * @param request
+		 * @return True if a request that goes first has the vote and cannot
+		 *         share it with this one
+		 */
+		boolean isBlockedByEarlierGrant(MutexRequest request) {
+			for (MutexRequest granted : grants.keySet()) {
+				if (granted.conflictsWith(request) && granted.compareTo(request) < 0)
+					return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Vote given to a request
+	 */
+	private static class Grant {
+		final MutexRequest request;
+		final long token;
+		long expiry;
+		boolean inquireSent = false;
+
+		Grant(MutexRequest request, long token, long expiry) {
+			this.request = request;
+			this.token = token;
+			this.expiry = expiry;
+		}
+	}
+
+	private final List<String> quorum;
+	private final long leaseNanos;
+	private long lamportTime = 0;
+	private long fencingClock = 0;
+	private final Map<String, Lock> locks = new HashMap<String, Lock>();
+
+	/**
+	 * @param localName
+	 * @param quorum
+	 *            Members whose votes are needed, including the local node
+	 * @param leaseMillis
+	 *            How long a vote lasts unless renewed, 0 for ever
+	 */
+	public MaekawaMutex(String localName, List<String> quorum, int leaseMillis) {
+		super(localName);
+		this.quorum = new ArrayList<String>(quorum);
+		this.leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public synchronized MutualExclusionState getState(String lockName) {
+		Lock lock = locks.get(lockName);
+		if (lock == null)
+			return MutualExclusionState.RELEASED;
+		if (lock.state == MutualExclusionState.HELD && lock.shared)
+			return MutualExclusionState.HELD_SHARED;
+		return lock.state;
+	}
+
+	@Override
+	public synchronized long getFencingToken(String lockName) {
+		Lock lock = locks.get(lockName);
+		return (lock == null || lock.state != MutualExclusionState.HELD) ? 0 : lock.fencingToken;
+	}
+
+	@Override
+	public long getLeaseMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(leaseNanos);
+	}
+
+	public List<String> getQuorum() {
+		return quorum;
+	}
+
+	@Override
+	public String describe() {
+		return "quorum " + quorum + (leaseNanos == 0 ? ", no leases" : ", lease " + getLeaseMillis() + " ms");
+	}
+
+	@Override
+	public synchronized void printStatus() {
+		for (Map.Entry<String, Lock> entry : locks.entrySet()) {
+			Lock lock = entry.getValue();
+			System.out.println("lock " + entry.getKey() + ": state = " + lock.state
+					+ (lock.state == MutualExclusionState.HELD ? ", token " + lock.fencingToken : "") + ", voted for "
+					+ lock.grants.keySet() + ", " + lock.waitingRequests.size() + " waiting");
+		}
+	}
+
+	/**
+	 * Start waiting for a lock. A REQUEST, or REQUEST_SHARED, goes to every
+	 * member of the quorum.
+	 */
+	@Override
+	public synchronized boolean request(String lockName, boolean shared, List<TimeStampedMessage> outbox) {
+		Lock lock = getLock(lockName);
+		if (lock.state != MutualExclusionState.RELEASED)
+			throw new IllegalStateException("State of lock " + lockName + " is " + lock.state);
+		lock.state = MutualExclusionState.WANTED;
+		lock.shared = shared;
+		lock.votes.clear();
+		lock.inquirers.clear();
+		lock.failed = false;
+		lock.fencingToken = 0;
+		lock.leaseStarts.clear();
+		lock.renewPending.clear();
+		lock.renewSentAt = System.nanoTime();
+		lock.requestStamp = ++lamportTime;
+		for (String member : quorum) {
+			lock.leaseStarts.put(member, lock.renewSentAt);
+			TimeStampedMessage message = createMessage(getRequestCommand(lock), member, lockName,
+					lock.requestStamp);
+			message.setFencingToken(fencingClock);
+			outbox.add(message);
+		}
+		return false;
+	}
+
+	/**
+	 * Leave a lock. A RELEASE goes to every member of the quorum.
+	 */
+	@Override
+	public synchronized void release(String lockName, List<TimeStampedMessage> outbox) {
+		Lock lock = locks.get(lockName);
+		if (lock == null || lock.state != MutualExclusionState.HELD)
+			throw new IllegalStateException("State of lock " + lockName + " is " + getState(lockName));
+		sendRelease(lock, lockName, outbox);
+	}
+
+	/**
+	 * Withdraw a request. RELEASE goes to every member of the quorum: voters
+	 * that gave their vote to it give it to the next request, the others drop
+	 * it from their queue.
+	 */
+	@Override
+	public synchronized boolean cancel(String lockName, List<TimeStampedMessage> outbox) {
+		Lock lock = locks.get(lockName);
+		if (lock == null || lock.state != MutualExclusionState.WANTED)
+			return false;
+		sendRelease(lock, lockName, outbox);
+		return true;
+	}
+
+	/**
+	 * Take back the votes whose lease has run out, renew the votes of the
+	 * requests of the local node, and give up the locks whose votes could not
+	 * be renewed in time
+	 */
+	@Override
+	public synchronized void tick(List<TimeStampedMessage> outbox, List<String> lostLocks) {
+		if (leaseNanos == 0)
+			return;
+		long now = System.nanoTime();
+		for (Map.Entry<String, Lock> entry : new ArrayList<Map.Entry<String, Lock>>(locks.entrySet())) {
+			String lockName = entry.getKey();
+			Lock lock = entry.getValue();
+			boolean reclaimed = false;
+			for (Grant grant : new ArrayList<Grant>(lock.grants.values())) {
+				if (now - grant.expiry > 0) {
+					lock.grants.remove(grant.request);
+					lock.turnedDown.remove(grant.request);
+					countReclaim();
+					reclaimed = true;
+				}
+			}
+			if (reclaimed)
+				grantNext(lock, lockName, outbox);
+			if (lock.state != MutualExclusionState.RELEASED && !checkLeases(lock, lockName, now, outbox))
+				lostLocks.add(lockName);
+			if (lock.isIdle())
+				locks.remove(lockName);
+		}
+	}
+
+	@Override
+	public synchronized boolean onMessage(TimeStampedMessage message, List<TimeStampedMessage> outbox) {
+		Long stamp = message.getOrderStamp();
+		if (message.getMeCommand() == null || stamp == null)
+			return false;
+		lamportTime = Math.max(lamportTime, stamp);
+		if (message.getFencingToken() != null)
+			fencingClock = Math.max(fencingClock, message.getFencingToken());
+		String lockName = getLockName(message);
+		Lock lock = getLock(lockName);
+		String from = message.getSource();
+		// Only a REQUEST_SHARED tells if a request is shared. A request that
+		// only shows up with another message is taken as exclusive, which is
+		// safe.
+		MutexRequest request = new MutexRequest(from, stamp,
+				message.getMeCommand() == MutualExclusionCommand.REQUEST_SHARED);
+		boolean entered = false;
+		switch (message.getMeCommand()) {
+		case REQUEST:
+		case REQUEST_SHARED:
+			onRequest(lock, lockName, request, outbox);
+			break;
+		case RENEW:
+			onRenew(lock, lockName, request, outbox);
+			break;
+		case RELEASE:
+			onRelease(lock, lockName, request, outbox);
+			break;
+		case YIELD:
+			onYield(lock, lockName, request, outbox);
+			break;
+		case REPLY:
+			entered = onReply(lock, lockName, from, stamp, message.getFencingToken(), outbox);
+			break;
+		case INQUIRE:
+			onInquire(lock, lockName, from, stamp, outbox);
+			break;
+		case FAILED:
+			onFailed(lock, lockName, stamp, outbox);
+			break;
+		default:
+			break;
+		}
+		if (lock.isIdle())
+			locks.remove(lockName);
+		return entered;
+	}
+
+	private Lock getLock(String lockName) {
+		Lock lock = locks.get(lockName);
+		if (lock == null) {
+			lock = new Lock();
+			locks.put(lockName, lock);
+		}
+		return lock;
+	}
+
+	private void onRequest(Lock lock, String lockName, MutexRequest request, List<TimeStampedMessage> outbox) {
+		Grant grant = lock.grants.get(request);
+		if (grant != null) {
+			// The requester gave the vote up too early: it gets it again, with
+			// an INQUIRE if a waiting request goes first
+			grant.expiry = System.nanoTime() + leaseNanos;
+			outbox.add(createReply(lockName, grant.request, grant.token));
+			grant.inquireSent = false;
+			inquire(lock, lockName, outbox);
+			return;
+		}
+		if (lock.waitingRequests.contains(request))
+			return;
+		MutexRequest previousHead = lock.waitingRequests.peek();
+		if ((previousHead == null || request.compareTo(previousHead) < 0) && lock.canGrant(request)) {
+			// Nothing goes first: a request that could share the vote gets it
+			// at once
+			if (previousHead != null && previousHead.conflictsWith(request))
+				turnDown(lock, lockName, previousHead, outbox);
+			grant(lock, lockName, request, outbox);
+			return;
+		}
+		lock.waitingRequests.add(request);
+		if ((previousHead != null && previousHead.compareTo(request) < 0) || lock.isBlockedByEarlierGrant(request)) {
+			// Something goes first
+			turnDown(lock, lockName, request, outbox);
+		} else if (previousHead != null) {
+			// The new request goes first: the previous head cannot be next
+			// anymore
+			turnDown(lock, lockName, previousHead, outbox);
+		}
+		inquire(lock, lockName, outbox);
+	}
+
+	private void onRenew(Lock lock, String lockName, MutexRequest request, List<TimeStampedMessage> outbox) {
+		Grant grant = lock.grants.get(request);
+		if (grant != null) {
+			grant.expiry = System.nanoTime() + leaseNanos;
+			outbox.add(createReply(lockName, grant.request, grant.token));
+		} else if (!lock.waitingRequests.contains(request)) {
+			// The vote was taken back from a requester that is still alive
+			onRequest(lock, lockName, request, outbox);
+		}
+	}
+
+	private void onRelease(Lock lock, String lockName, MutexRequest request, List<TimeStampedMessage> outbox) {
+		if (lock.grants.remove(request) != null) {
+			grantNext(lock, lockName, outbox);
+		} else {
+			// A request that never got the vote, or got it back, was withdrawn:
+			// the requests behind it may go on
+			lock.waitingRequests.remove(request);
+			lock.turnedDown.remove(request);
+			grantNext(lock, lockName, outbox);
+		}
+	}
+
+	private void onYield(Lock lock, String lockName, MutexRequest request, List<TimeStampedMessage> outbox) {
+		Grant grant = lock.grants.remove(request);
+		if (grant == null) {
+			// The vote was taken back before it was given back: the request
+			// still waits
+			onRequest(lock, lockName, request, outbox);
+			return;
+		}
+		// The yielding requester knows it is not next
+		lock.waitingRequests.add(grant.request);
+		lock.turnedDown.add(grant.request);
+		grantNext(lock, lockName, outbox);
+	}
+
+	private boolean onReply(Lock lock, String lockName, String voter, long stamp, Long fencingToken,
+			List<TimeStampedMessage> outbox) {
+		if (lock.state == MutualExclusionState.RELEASED || stamp != lock.requestStamp || !quorum.contains(voter))
+			return false;
+		if (fencingToken != null)
+			lock.fencingToken = Math.max(lock.fencingToken, fencingToken);
+		if (lock.votes.contains(voter)) {
+			// Answer to a RENEW
+			if (lock.renewPending.remove(voter))
+				lock.leaseStarts.put(voter, lock.renewSentAt);
+			return false;
+		}
+		if (lock.state != MutualExclusionState.WANTED)
+			return false;
+		lock.renewPending.remove(voter);
+		long now = System.nanoTime();
+		if (leaseNanos != 0 && now - lock.leaseStarts.get(voter) >= leaseNanos) {
+			// The vote may have run out on its way
+			askAgain(lock, lockName, voter, now, outbox);
+			return false;
+		}
+		lock.votes.add(voter);
+		if (lock.votes.size() < quorum.size() || !checkVotes(lock, lockName, now, outbox))
+			return false;
+		lock.state = MutualExclusionState.HELD;
+		lock.inquirers.clear();
+		return true;
+	}
+
+	private void onInquire(Lock lock, String lockName, String voter, long stamp, List<TimeStampedMessage> outbox) {
+		// Once HELD, the vote comes back with RELEASE
+		if (lock.state != MutualExclusionState.WANTED || stamp != lock.requestStamp)
+			return;
+		if (lock.failed)
+			yieldVote(lock, lockName, voter, outbox);
+		else
+			lock.inquirers.add(voter);
+	}
+
+	private void onFailed(Lock lock, String lockName, long stamp, List<TimeStampedMessage> outbox) {
+		if (lock.state != MutualExclusionState.WANTED || stamp != lock.requestStamp)
+			return;
+		lock.failed = true;
+		for (String voter : lock.inquirers) {
+			yieldVote(lock, lockName, voter, outbox);
+		}
+		lock.inquirers.clear();
+	}
+
+	private void yieldVote(Lock lock, String lockName, String voter, List<TimeStampedMessage> outbox) {
+		if (!lock.votes.remove(voter))
+			return;
+		lock.leaseStarts.put(voter, System.nanoTime());
+		lock.renewPending.remove(voter);
+		outbox.add(createMessage(MutualExclusionCommand.YIELD, voter, lockName, lock.requestStamp));
+	}
+
+	/**
+	 * Ask again for the votes of a complete quorum that may have run out
+	 *
+	 * @return True if all the votes are still good
+	 */
+	private boolean checkVotes(Lock lock, String lockName, long now, List<TimeStampedMessage> outbox) {
+		if (leaseNanos == 0)
+			return true;
+		for (String voter : new ArrayList<String>(lock.votes)) {
+			if (now - lock.leaseStarts.get(voter) >= leaseNanos) {
+				lock.votes.remove(voter);
+				askAgain(lock, lockName, voter, now, outbox);
+			}
+		}
+		return lock.votes.size() == quorum.size();
+	}
+
+	/**
+	 * Ask for a vote that may have run out again. The answer to a RENEW still
+	 * on its way started its lease when the RENEW was sent.
+	 */
+	private void askAgain(Lock lock, String lockName, String voter, long now, List<TimeStampedMessage> outbox) {
+		lock.leaseStarts.put(voter, lock.renewPending.remove(voter) ? lock.renewSentAt : now);
+		outbox.add(createMessage(getRequestCommand(lock), voter, lockName, lock.requestStamp));
+	}
+
+	private static MutualExclusionCommand getRequestCommand(Lock lock) {
+		return lock.shared ? MutualExclusionCommand.REQUEST_SHARED : MutualExclusionCommand.REQUEST;
+	}
+
+	private void sendRelease(Lock lock, String lockName, List<TimeStampedMessage> outbox) {
+		lock.state = MutualExclusionState.RELEASED;
+		for (String member : quorum) {
+			TimeStampedMessage message = createMessage(MutualExclusionCommand.RELEASE, member, lockName,
+					lock.requestStamp);
+			message.setFencingToken(lock.fencingToken);
+			outbox.add(message);
+		}
+	}
+
+	/**
+	 * Drop the votes of a request of the local node whose lease may have run
+	 * out, asking for them again with a new REQUEST, and renew the others
+	 *
+	 * @return False if the lock was HELD and has been given up
+	 */
+	private boolean checkLeases(Lock lock, String lockName, long now, List<TimeStampedMessage> outbox) {
+		for (String voter : new ArrayList<String>(lock.votes)) {
+			if (now - lock.leaseStarts.get(voter) < leaseNanos)
+				continue;
+			if (lock.state == MutualExclusionState.HELD) {
+				sendRelease(lock, lockName, outbox);
+				return false;
+			}
+			lock.votes.remove(voter);
+			askAgain(lock, lockName, voter, now, outbox);
+		}
+		if (lock.votes.isEmpty() || !lock.renewPending.isEmpty() || now - lock.renewSentAt < leaseNanos / 3)
+			return true;
+		lock.renewSentAt = now;
+		for (String voter : lock.votes) {
+			lock.renewPending.add(voter);
+			outbox.add(createMessage(MutualExclusionCommand.RENEW, voter, lockName, lock.requestStamp));
+		}
+		return true;
+	}
+
+	private void grant(Lock lock, String lockName, MutexRequest request, List<TimeStampedMessage> outbox) {
+		Grant grant = new Grant(request, nextFencingToken(), System.nanoTime() + leaseNanos);
+		lock.grants.put(request, grant);
+		lock.turnedDown.remove(request);
+		outbox.add(createReply(lockName, request, grant.token));
+	}
+
+	/**
+	 * @return A token larger than every token seen here, and than the wall
+	 *         clock
+	 */
+	private long nextFencingToken() {
+		fencingClock = Math.max(fencingClock + 1, System.currentTimeMillis());
+		return fencingClock;
+	}
+
+	private TimeStampedMessage createReply(String lockName, MutexRequest request, long fencingToken) {
+		TimeStampedMessage message = createMessage(MutualExclusionCommand.REPLY, request.node, lockName,
+				request.stamp);
+		message.setFencingToken(fencingToken);
+		return message;
+	}
+
+	/**
+	 * Give the vote to the waiting requests that go first, as many as can
+	 * share it
+	 */
+	private void grantNext(Lock lock, String lockName, List<TimeStampedMessage> outbox) {
+		MutexRequest next;
+		while ((next = lock.waitingRequests.peek()) != null && lock.canGrant(next)) {
+			lock.waitingRequests.poll();
+			grant(lock, lockName, next, outbox);
+		}
+		inquire(lock, lockName, outbox);
+	}
+
+	/**
+	 * Ask for the votes the first waiting request cannot share back from the
+	 * requests behind it, once per vote. A vote given to a request that goes
+	 * first comes back with its RELEASE anyway.
+	 */
+	private void inquire(Lock lock, String lockName, List<TimeStampedMessage> outbox) {
+		MutexRequest head = lock.waitingRequests.peek();
+		if (head == null)
+			return;
+		for (Grant grant : lock.grants.values()) {
+			if (!grant.inquireSent && grant.request.conflictsWith(head) && head.compareTo(grant.request) < 0) {
+				outbox.add(createMessage(MutualExclusionCommand.INQUIRE, grant.request.node, lockName,
+						grant.request.stamp));
+				grant.inquireSent = true;
+			}
+		}
+	}
+
+	private void turnDown(Lock lock, String lockName, MutexRequest request, List<TimeStampedMessage> outbox) {
+		if (lock.turnedDown.add(request))
+			outbox.add(createMessage(MutualExclusionCommand.FAILED, request.node, lockName, request.stamp));
+	}
+
+	private TimeStampedMessage createMessage(MutualExclusionCommand command, String destination, String lockName,
+			long stamp) {
+		TimeStampedMessage message = createMessage(command, destination, lockName);
+		message.setOrderStamp(stamp);
+		return message;
+	}
+}
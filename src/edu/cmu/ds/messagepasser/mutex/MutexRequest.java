@@ -0,0 +1,55 @@
+package edu.cmu.ds.messagepasser.mutex;
+
+/**
+ * A request for the critical section, identified by its requester and its
+ * Lamport time stamp
+ *
+ * Requests are totally ordered by (time stamp, requester name): a smaller one
+ * has a higher priority. Every node orders the same two requests the same way.
+ * Whether the request is shared does not take part in its identity.
+ */
+class MutexRequest implements Comparable<MutexRequest> {
+	final String node;
+	final long stamp;
+	final boolean shared;
+
+	MutexRequest(String node, long stamp, boolean shared) {
+		this.node = node;
+		this.stamp = stamp;
+		this.shared = shared;
+	}
+
+	/**
+	 * @param other
+	 * @return False if both requests are shared, so they can hold the lock
+	 *         together
+	 */
+	boolean conflictsWith(MutexRequest other) {
+		return !shared || !other.shared;
+	}
+
+	@Override
+	public int compareTo(MutexRequest o) {
+		if (stamp != o.stamp)
+			return stamp < o.stamp ? -1 : 1;
+		return node.compareTo(o.node);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof MutexRequest))
+			return false;
+		MutexRequest other = (MutexRequest) o;
+		return stamp == other.stamp && node.equals(other.node);
+	}
+
+	@Override
+	public int hashCode() {
+		return node.hashCode() * 31 + (int) (stamp ^ (stamp >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return node + "@" + stamp + (shared ? " (shared)" : "");
+	}
+}
@@ -0,0 +1,222 @@
+package edu.cmu.ds.messagepasser.mutex;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.cmu.ds.messagepasser.model.MutualExclusionCommand;
+import edu.cmu.ds.messagepasser.model.MutualExclusionState;
+import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
+
+/**
+ * Distributed mutual exclusion algorithm of a node
+ *
+ * The algorithm only decides what to send: every call fills an outbox that
+ * the caller sends in order, handling the messages addressed to the local node
+ * right away. Every node of the system must use the same algorithm. Locks are
+ * named, and each one is acquired independently of the others. It also
+ * counts the messages it costs and the time acquisitions wait and hold locks,
+ * so that algorithms can be compared on the same workload. The counters can be
+ * updated from any thread.
+ */
+public abstract class MutualExclusion {
+	public static final String DEFAULT_NAME = MaekawaMutex.NAME;
+	/*
+	 * Lock used when none is named
+	 */
+	public static final String DEFAULT_LOCK = "default";
+
+	protected final String localName;
+	private final AtomicInteger messagesSent = new AtomicInteger(0);
+	private final AtomicInteger messagesReceived = new AtomicInteger(0);
+	private final AtomicInteger entryCount = new AtomicInteger(0);
+	private final AtomicInteger releaseCount = new AtomicInteger(0);
+	private final AtomicInteger timeoutCount = new AtomicInteger(0);
+	private final AtomicInteger expiryCount = new AtomicInteger(0);
+	private final AtomicInteger reclaimCount = new AtomicInteger(0);
+	private final AtomicLong totalWaitNanos = new AtomicLong(0);
+	private final AtomicLong maxWaitNanos = new AtomicLong(0);
+	private final AtomicLong totalHoldNanos = new AtomicLong(0);
+	private final AtomicLong totalMessageCount = new AtomicLong(0);
+
+	protected MutualExclusion(String localName) {
+		this.localName = localName;
+	}
+
+	/**
+	 * @return Name used to select this algorithm in the configuration file
+	 */
+	public abstract String getName();
+
+	public abstract MutualExclusionState getState(String lockName);
+
+	/**
+	 * @param lockName
+	 * @return Fencing token of the lock, larger than that of every earlier
+	 *         holder, or 0 if the local node does not hold it
+	 */
+	public abstract long getFencingToken(String lockName);
+
+	/**
+	 * @return How long a grant lasts unless renewed, 0 if grants never expire
+	 */
+	public long getLeaseMillis() {
+		return 0;
+	}
+
+	/**
+	 * Expire and renew leases. Called about four times per lease when
+	 * getLeaseMillis() is not 0.
+	 * 
+	 * @param outbox
+	 *            Receives the messages to send
+	 * @param lostLocks
+	 *            Receives the locks the local node held and has given up
+	 *            because their lease ran out
+	 */
+	public void tick(List<TimeStampedMessage> outbox, List<String> lostLocks) {
+	}
+
+	/**
+	 * Start waiting for a lock
+	 *
+	 * @param lockName
+	 * @param shared
+	 *            True to hold the lock together with other shared holders. An
+	 *            algorithm that cannot share locks takes it exclusively.
+	 * @param outbox
+	 *            Receives the messages to send
+	 * @return True if the local node has entered the critical section without
+	 *         waiting for anybody
+	 */
+	public abstract boolean request(String lockName, boolean shared, List<TimeStampedMessage> outbox);
+
+	/**
+	 * Leave a lock
+	 *
+	 * @param lockName
+	 * @param outbox
+	 *            Receives the messages to send
+	 */
+	public abstract void release(String lockName, List<TimeStampedMessage> outbox);
+
+	/**
+	 * Withdraw a request that has not acquired its lock yet
+	 *
+	 * @param lockName
+	 * @param outbox
+	 *            Receives the messages to send
+	 * @return False if the lock is not WANTED
+	 */
+	public abstract boolean cancel(String lockName, List<TimeStampedMessage> outbox);
+
+	/**
+	 * Handle a mutual exclusion message
+	 *
+	 * @param message
+	 * @param outbox
+	 *            Receives the messages to send, some of which may be addressed
+	 *            to the local node
+	 * @return True if the local node has just acquired the lock the message is
+	 *         about
+	 */
+	public abstract boolean onMessage(TimeStampedMessage message, List<TimeStampedMessage> outbox);
+
+	/**
+	 * @return One line describing the peers this node talks to
+	 */
+	public abstract String describe();
+
+	/**
+	 * Print the state of every lock the local node is involved in
+	 */
+	public abstract void printStatus();
+
+	/**
+	 * @param message
+	 * @return Lock a mutual exclusion message is about
+	 */
+	public static String getLockName(TimeStampedMessage message) {
+		return message.getLockName() == null ? DEFAULT_LOCK : message.getLockName();
+	}
+
+	protected TimeStampedMessage createMessage(MutualExclusionCommand command, String destination, String lockName) {
+		TimeStampedMessage message = new TimeStampedMessage(destination, command.name(), command.name());
+		message.setSource(localName);
+		message.setMeCommand(command);
+		message.setLockName(lockName);
+		return message;
+	}
+
+	public void countSent() {
+		messagesSent.incrementAndGet();
+	}
+
+	public void countReceived() {
+		messagesReceived.incrementAndGet();
+	}
+
+	/**
+	 * @param handle
+	 *            An acquisition that has just acquired its lock
+	 */
+	public void countEntry(LockHandle handle) {
+		entryCount.incrementAndGet();
+		long waitNanos = handle.getWaitTime(TimeUnit.NANOSECONDS);
+		totalWaitNanos.addAndGet(waitNanos);
+		long max;
+		while ((max = maxWaitNanos.get()) < waitNanos && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+		}
+	}
+
+	/**
+	 * @param handle
+	 *            An acquisition that has just released its lock
+	 */
+	public void countRelease(LockHandle handle) {
+		releaseCount.incrementAndGet();
+		totalHoldNanos.addAndGet(handle.getHoldTime(TimeUnit.NANOSECONDS));
+		totalMessageCount.addAndGet(handle.getMessageCount());
+	}
+
+	public void countTimeout() {
+		timeoutCount.incrementAndGet();
+	}
+
+	/**
+	 * A lock held by the local node was lost because its lease ran out
+	 */
+	public void countExpiry() {
+		expiryCount.incrementAndGet();
+	}
+
+	/**
+	 * A grant was taken back because its lease ran out
+	 */
+	protected void countReclaim() {
+		reclaimCount.incrementAndGet();
+	}
+
+	/**
+	 * Print the message counters and acquisition metrics
+	 */
+	public void printCounters() {
+		System.out.println("# " + getName() + " messages sent = " + messagesSent.get());
+		System.out.println("# " + getName() + " messages received = " + messagesReceived.get());
+		int entries = entryCount.get();
+		System.out.println("# entries = " + entries + ", timeouts = " + timeoutCount.get() + ", leases lost = "
+				+ expiryCount.get() + ", grants reclaimed = " + reclaimCount.get());
+		if (entries > 0)
+			System.out.println("# wait = " + toMillis(totalWaitNanos.get() / entries) + " ms average, "
+					+ toMillis(maxWaitNanos.get()) + " ms max");
+		int releases = releaseCount.get();
+		if (releases > 0)
+			System.out.println("# hold = " + toMillis(totalHoldNanos.get() / releases) + " ms average, "
+					+ String.format("%.1f", (double) totalMessageCount.get() / releases) + " messages per entry");
+	}
+
+	private static String toMillis(long nanos) {
+		return String.format("%.2f", nanos / 1e6);
+	}
+}
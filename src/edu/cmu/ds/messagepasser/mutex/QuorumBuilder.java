@@ -0,0 +1,45 @@
+package edu.cmu.ds.messagepasser.mutex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Voting sets for Maekawa's algorithm derived from the list of nodes
+ *
+ * The nodes are laid out row by row in a grid with ceil(sqrt(N)) columns, and
+ * the quorum of a node is its row plus its column, about 2 sqrt(N) nodes. The
+ * row of one node always crosses the column of the other, and when that cell
+ * is missing because one of them is in the last, partial row, the row of the
+ * other crosses the column of the first instead. So any two quorums intersect.
+ */
+public class QuorumBuilder {
+	/*
+	 * Names accepted by the quorum setting of a node
+	 */
+	public static final String GRID = "grid";
+	public static final String GROUP = "group";
+
+	private QuorumBuilder() {
+	}
+
+	/**
+	 * @param nodeNames
+	 *            All nodes, in the same order on every node
+	 * @param localName
+	 * @return Row and column of the local node in the grid, in node order
+	 */
+	public static List<String> buildGridQuorum(List<String> nodeNames, String localName) {
+		int index = nodeNames.indexOf(localName);
+		if (index < 0)
+			throw new IllegalArgumentException(localName + " is not in the node list");
+		int columnCount = (int) Math.ceil(Math.sqrt(nodeNames.size()));
+		int row = index / columnCount;
+		int column = index % columnCount;
+		List<String> quorum = new ArrayList<String>(2 * columnCount);
+		for (int i = 0; i < nodeNames.size(); i++) {
+			if (i / columnCount == row || i % columnCount == column)
+				quorum.add(nodeNames.get(i));
+		}
+		return quorum;
+	}
+}
@@ -0,0 +1,242 @@
+package edu.cmu.ds.messagepasser.mutex;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cmu.ds.messagepasser.model.MutualExclusionCommand;
+import edu.cmu.ds.messagepasser.model.MutualExclusionState;
+import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
+
+/**
+ * Raymond's token-based algorithm for mutual exclusion
+ *
+ * The nodes form a binary tree in configuration order, the first node being
+ * the root and the first holder of the token of every lock. Every node knows in
+ * which direction each token is (holder): itself or a neighbour. A REQUEST
+ * travels towards the token one hop at a time and the TOKEN comes back the same
+ * way, so an entry costs O(log N) messages, and none at all when the token is
+ * already here. Each node forwards at most one REQUEST for all the requests
+ * it has queued, and serves its queue in FIFO order, so every request is
+ * eventually served.
+ *
+ * Only locks whose token is away from its initial direction, or that have
+ * requests queued, are kept in the table.
+ *
+ * The token carries the fencing token of the lock, which goes up by one at
+ * every entry. A node that forgets a lock starts it again from the largest
+ * fencing token it has seen. There are no leases: a token lost with its holder
+ * is not regenerated. With a single token there is no sharing either: shared
+ * requests are served as exclusive ones.
+ *
+ * Thread safe. The messages returned in an outbox must be sent in order before
+ * the next call.
+ */
+public class RaymondMutex extends MutualExclusion {
+	public static final String NAME = "raymond";
+
+	/**
+	 * State of one named lock
+	 */
+	private static class Lock {
+		/*
+		 * Neighbour in the direction of the token, or the local node if it has
+		 * it
+		 */
+		String holder;
+		boolean using = false;
+		boolean asked = false;
+		long fencingToken;
+		/*
+		 * Nodes whose requests are waiting here: the local node or neighbours
+		 */
+		final ArrayDeque<String> requestQueue = new ArrayDeque<String>();
+
+		Lock(String holder, long fencingToken) {
+			this.holder = holder;
+			this.fencingToken = fencingToken;
+		}
+	}
+
+	/*
+	 * Direction of every token at startup: the parent, or the local node for
+	 * the root
+	 */
+	private final String initialHolder;
+	/*
+	 * Largest fencing token seen, of any lock
+	 */
+	private long fencingClock = 0;
+	private final Map<String, Lock> locks = new HashMap<String, Lock>();
+
+	/**
+	 * @param localName
+	 * @param nodeNames
+	 *            All nodes, in the same order on every node
+	 */
+	public RaymondMutex(String localName, List<String> nodeNames) {
+		super(localName);
+		int index = nodeNames.indexOf(localName);
+		if (index < 0)
+			throw new IllegalArgumentException(localName + " is not in the node list");
+		this.initialHolder = (index == 0) ? localName : nodeNames.get((index - 1) / 2);
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public synchronized MutualExclusionState getState(String lockName) {
+		Lock lock = locks.get(lockName);
+		if (lock == null)
+			return MutualExclusionState.RELEASED;
+		if (lock.using)
+			return MutualExclusionState.HELD;
+		return lock.requestQueue.contains(localName) ? MutualExclusionState.WANTED : MutualExclusionState.RELEASED;
+	}
+
+	@Override
+	public synchronized long getFencingToken(String lockName) {
+		Lock lock = locks.get(lockName);
+		return (lock == null || !lock.using) ? 0 : lock.fencingToken;
+	}
+
+	@Override
+	public String describe() {
+		return "token tree, parent " + initialHolder + ", no leases";
+	}
+
+	@Override
+	public synchronized void printStatus() {
+		for (Map.Entry<String, Lock> entry : locks.entrySet()) {
+			Lock lock = entry.getValue();
+			System.out.println("lock " + entry.getKey() + ": state = " + getState(entry.getKey()) + ", token "
+					+ (lock.holder.equals(localName) ? "here" : "towards " + lock.holder) + ", queue = "
+					+ lock.requestQueue);
+		}
+	}
+
+	@Override
+	public synchronized boolean request(String lockName, boolean shared, List<TimeStampedMessage> outbox) {
+		if (getState(lockName) != MutualExclusionState.RELEASED)
+			throw new IllegalStateException("State of lock " + lockName + " is " + getState(lockName));
+		Lock lock = getLock(lockName);
+		lock.requestQueue.add(localName);
+		boolean entered = assignToken(lock, lockName, outbox);
+		askForToken(lock, lockName, outbox);
+		return entered;
+	}
+
+	@Override
+	public synchronized void release(String lockName, List<TimeStampedMessage> outbox) {
+		Lock lock = locks.get(lockName);
+		if (lock == null || !lock.using)
+			throw new IllegalStateException("State of lock " + lockName + " is " + getState(lockName));
+		lock.using = false;
+		assignToken(lock, lockName, outbox);
+		askForToken(lock, lockName, outbox);
+		removeIfIdle(lock, lockName);
+	}
+
+	/**
+	 * Withdraw a request. A REQUEST already sent for it still brings the token
+	 * here, from where it goes on to the next request.
+	 */
+	@Override
+	public synchronized boolean cancel(String lockName, List<TimeStampedMessage> outbox) {
+		if (getState(lockName) != MutualExclusionState.WANTED)
+			return false;
+		Lock lock = locks.get(lockName);
+		lock.requestQueue.remove(localName);
+		removeIfIdle(lock, lockName);
+		return true;
+	}
+
+	@Override
+	public synchronized boolean onMessage(TimeStampedMessage message, List<TimeStampedMessage> outbox) {
+		if (message.getMeCommand() == null)
+			return false;
+		String lockName = getLockName(message);
+		Lock lock = getLock(lockName);
+		switch (message.getMeCommand()) {
+		case REQUEST:
+			if (!lock.requestQueue.contains(message.getSource()))
+				lock.requestQueue.add(message.getSource());
+			break;
+		case TOKEN:
+			lock.holder = localName;
+			if (message.getFencingToken() != null)
+				lock.fencingToken = Math.max(lock.fencingToken, message.getFencingToken());
+			fencingClock = Math.max(fencingClock, lock.fencingToken);
+			break;
+		default:
+			return false;
+		}
+		boolean entered = assignToken(lock, lockName, outbox);
+		askForToken(lock, lockName, outbox);
+		removeIfIdle(lock, lockName);
+		return entered;
+	}
+
+	private Lock getLock(String lockName) {
+		Lock lock = locks.get(lockName);
+		if (lock == null) {
+			lock = new Lock(initialHolder, fencingClock);
+			locks.put(lockName, lock);
+		}
+		return lock;
+	}
+
+	/**
+	 * Forget a lock that looks the same as one never used
+	 *
+	 * @param lock
+	 * @param lockName
+	 */
+	private void removeIfIdle(Lock lock, String lockName) {
+		if (!lock.using && lock.requestQueue.isEmpty() && lock.holder.equals(initialHolder))
+			locks.remove(lockName);
+	}
+
+	/**
+	 * Hand the token to the first queued request if it is here and unused
+	 *
+	 * @param lock
+	 * @param lockName
+	 * @param outbox
+	 * @return True if the local node has acquired the lock
+	 */
+	private boolean assignToken(Lock lock, String lockName, List<TimeStampedMessage> outbox) {
+		if (!lock.holder.equals(localName) || lock.using || lock.requestQueue.isEmpty())
+			return false;
+		String next = lock.requestQueue.poll();
+		lock.asked = false;
+		if (next.equals(localName)) {
+			lock.using = true;
+			fencingClock = Math.max(fencingClock, ++lock.fencingToken);
+			return true;
+		}
+		lock.holder = next;
+		TimeStampedMessage token = createMessage(MutualExclusionCommand.TOKEN, next, lockName);
+		token.setFencingToken(lock.fencingToken);
+		outbox.add(token);
+		return false;
+	}
+
+	/**
+	 * Ask for the token on behalf of the queued requests, once
+	 *
+	 * @param lock
+	 * @param lockName
+	 * @param outbox
+	 */
+	private void askForToken(Lock lock, String lockName, List<TimeStampedMessage> outbox) {
+		if (lock.holder.equals(localName) || lock.requestQueue.isEmpty() || lock.asked)
+			return;
+		outbox.add(createMessage(MutualExclusionCommand.REQUEST, lock.holder, lockName));
+		lock.asked = true;
+	}
+}
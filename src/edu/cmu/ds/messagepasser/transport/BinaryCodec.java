@@ -0,0 +1,335 @@
+package edu.cmu.ds.messagepasser.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import edu.cmu.ds.messagepasser.clock.VectorTimeStamp;
+import edu.cmu.ds.messagepasser.model.MutualExclusionCommand;
+import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
+
+/**
+ * Compact field-by-field encoding of a TimeStampedMessage
+ *
+ * Layout (version 6):
+ *
+ * <pre>
+ * version      byte
+ * flags        byte     (isDuplicate, has sequence number, has multicast header,
+ *                        has order stamp, has lock name, has fencing token)
+ * destination  string
+ * kind         string
+ * source       string
+ * sequence     varint   (if flagged)
+ * multicast    string multicaster, string group, varint sequence (if flagged)
+ * orderStamp   varlong  (if flagged)
+ * lockName     string   (if flagged)
+ * fencingToken varlong  (if flagged)
+ * data         tag byte, then string / length-prefixed bytes / serialized object
+ *              / varint count + nested messages, each in this layout
+ * timeStamp    tag byte, then zigzag logical time, varint size + varint entries,
+ *              or varint size + varint count + (varint index, varint value) pairs
+ * meCommand    byte     (ordinal + 1, 0 if none)
+ * </pre>
+ * 
+ * The pair form only lists the entries that changed since the previous vector
+ * of the same clock on the connection, and is used when a VectorDeltaContext is
+ * given and it is shorter than the full vector.
+ */
+public class BinaryCodec extends MessageCodec {
+	public static final int ID = 1;
+	public static final String NAME = "binary";
+	public static final int VERSION = 6;
+
+	private static final int FLAG_DUPLICATE = 0x01;
+	private static final int FLAG_SEQUENCE_NUMBER = 0x02;
+	private static final int FLAG_MULTICAST_HEADER = 0x04;
+	private static final int FLAG_ORDER_STAMP = 0x08;
+	private static final int FLAG_LOCK_NAME = 0x10;
+	private static final int FLAG_FENCING_TOKEN = 0x20;
+
+	private static final int DATA_NULL = 0;
+	private static final int DATA_STRING = 1;
+	private static final int DATA_BYTES = 2;
+	private static final int DATA_OBJECT = 3;
+	private static final int DATA_MESSAGES = 4;
+
+	private static final int TIME_STAMP_NULL = 0;
+	private static final int TIME_STAMP_LOGICAL = 1;
+	private static final int TIME_STAMP_VECTOR = 2;
+	private static final int TIME_STAMP_VECTOR_DELTA = 3;
+
+	/*
+	 * Clock name of messages that carry the main clock of a node
+	 */
+	private static final String MAIN_CLOCK = "";
+
+	private static final MutualExclusionCommand[] ME_COMMANDS = MutualExclusionCommand.values();
+
+	@Override
+	public int getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public void encode(TimeStampedMessage message, WireWriter out, VectorDeltaContext context) throws IOException {
+		out.writeByte(VERSION);
+		int flags = 0;
+		if (message.getIsDuplicate())
+			flags |= FLAG_DUPLICATE;
+		if (message.getSequenceNumber() != null)
+			flags |= FLAG_SEQUENCE_NUMBER;
+		boolean hasMulticastHeader = message.getMulticasterName() != null
+				&& message.getMulticastSequenceNumber() != null;
+		if (hasMulticastHeader)
+			flags |= FLAG_MULTICAST_HEADER;
+		if (message.getOrderStamp() != null)
+			flags |= FLAG_ORDER_STAMP;
+		if (message.getLockName() != null)
+			flags |= FLAG_LOCK_NAME;
+		if (message.getFencingToken() != null)
+			flags |= FLAG_FENCING_TOKEN;
+		out.writeByte(flags);
+		out.writeString(message.getDestination());
+		out.writeString(message.getKind());
+		out.writeString(message.getSource());
+		if (message.getSequenceNumber() != null)
+			out.writeVarInt(message.getSequenceNumber());
+		if (hasMulticastHeader) {
+			out.writeString(message.getMulticasterName());
+			out.writeString(message.getMulticastGroupName());
+			out.writeVarInt(message.getMulticastSequenceNumber());
+		}
+		if (message.getOrderStamp() != null)
+			out.writeVarLong(message.getOrderStamp());
+		if (message.getLockName() != null)
+			out.writeString(message.getLockName());
+		if (message.getFencingToken() != null)
+			out.writeVarLong(message.getFencingToken());
+		encodeData(message.getData(), out, context);
+		encodeTimeStamp(message, out, context);
+		MutualExclusionCommand meCommand = message.getMeCommand();
+		out.writeByte(meCommand == null ? 0 : meCommand.ordinal() + 1);
+	}
+
+	@Override
+	public TimeStampedMessage decode(WireReader in, VectorDeltaContext context) throws IOException {
+		int version = in.readByte();
+		if (version != VERSION)
+			throw new IOException("Unsupported binary codec version " + version);
+		int flags = in.readByte();
+		TimeStampedMessage message = new TimeStampedMessage();
+		message.setIsDuplicate((flags & FLAG_DUPLICATE) != 0);
+		message.setDestination(in.readString());
+		message.setKind(in.readString());
+		message.setSource(in.readString());
+		if ((flags & FLAG_SEQUENCE_NUMBER) != 0)
+			message.setSequenceNumber(in.readVarInt());
+		if ((flags & FLAG_MULTICAST_HEADER) != 0) {
+			message.setMulticasterName(in.readString());
+			message.setMulticastGroupName(in.readString());
+			message.setMulticastSequenceNumber(in.readVarInt());
+		}
+		if ((flags & FLAG_ORDER_STAMP) != 0)
+			message.setOrderStamp(in.readVarLong());
+		if ((flags & FLAG_LOCK_NAME) != 0)
+			message.setLockName(in.readString());
+		if ((flags & FLAG_FENCING_TOKEN) != 0)
+			message.setFencingToken(in.readVarLong());
+		message.setData(decodeData(in, context));
+		message.setTimeStamp(decodeTimeStamp(message, in, context));
+		int meCommand = in.readByte();
+		if (meCommand > ME_COMMANDS.length)
+			throw new IOException("Unknown mutual exclusion command " + meCommand);
+		if (meCommand > 0)
+			message.setMeCommand(ME_COMMANDS[meCommand - 1]);
+		return message;
+	}
+
+	private void encodeData(Object data, WireWriter out, VectorDeltaContext context) throws IOException {
+		if (data == null) {
+			out.writeByte(DATA_NULL);
+		} else if (data instanceof String) {
+			out.writeByte(DATA_STRING);
+			out.writeString((String) data);
+		} else if (data instanceof byte[]) {
+			byte[] bytes = (byte[]) data;
+			out.writeByte(DATA_BYTES);
+			out.writeVarInt(bytes.length);
+			out.writeBytes(bytes, 0, bytes.length);
+		} else if (data instanceof TimeStampedMessage[]) {
+			// Batch of messages for the same destination
+			TimeStampedMessage[] messages = (TimeStampedMessage[]) data;
+			out.writeByte(DATA_MESSAGES);
+			out.writeVarInt(messages.length);
+			for (TimeStampedMessage nested : messages) {
+				encode(nested, out, context);
+			}
+		} else {
+			// Arbitrary application object: fall back to Java serialization
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+			ObjectOutputStream ot = new ObjectOutputStream(bytes);
+			ot.writeObject(data);
+			ot.close();
+			byte[] payload = bytes.toByteArray();
+			out.writeByte(DATA_OBJECT);
+			out.writeVarInt(payload.length);
+			out.writeBytes(payload, 0, payload.length);
+		}
+	}
+
+	private Object decodeData(WireReader in, VectorDeltaContext context) throws IOException {
+		int tag = in.readByte();
+		switch (tag) {
+		case DATA_NULL:
+			return null;
+		case DATA_STRING:
+			return in.readString();
+		case DATA_BYTES:
+			return in.readBytes(in.readVarInt());
+		case DATA_MESSAGES:
+			int count = in.readVarInt();
+			if (count < 0 || count > in.remaining())
+				throw new IOException("Invalid batch size " + count);
+			TimeStampedMessage[] messages = new TimeStampedMessage[count];
+			for (int i = 0; i < count; i++) {
+				messages[i] = decode(in, context);
+			}
+			return messages;
+		case DATA_OBJECT:
+			byte[] payload = in.readBytes(in.readVarInt());
+			ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(payload));
+			try {
+				return is.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Unknown data class in frame", e);
+			} finally {
+				is.close();
+			}
+		default:
+			throw new IOException("Unknown data tag " + tag);
+		}
+	}
+
+	private void encodeTimeStamp(TimeStampedMessage message, WireWriter out, VectorDeltaContext context)
+			throws IOException {
+		Object timeStamp = message.getTimeStamp();
+		if (timeStamp == null) {
+			out.writeByte(TIME_STAMP_NULL);
+		} else if (timeStamp instanceof Integer) {
+			out.writeByte(TIME_STAMP_LOGICAL);
+			out.writeZigZag((Integer) timeStamp);
+		} else if (timeStamp instanceof VectorTimeStamp) {
+			VectorTimeStamp vector = (VectorTimeStamp) timeStamp;
+			if (context != null) {
+				String clockName = getClockName(message);
+				VectorTimeStamp last = context.getLast(clockName);
+				context.setLast(clockName, vector);
+				if (last != null && last.size() == vector.size() && encodeVectorDelta(vector, last, out))
+					return;
+			}
+			out.writeByte(TIME_STAMP_VECTOR);
+			out.writeVarInt(vector.size());
+			for (int i = 0; i < vector.size(); i++) {
+				out.writeVarInt(vector.get(i));
+			}
+		} else {
+			throw new IOException("Unsupported time stamp type " + timeStamp.getClass().getName());
+		}
+	}
+
+	/**
+	 * Write only the entries that differ from the previous vector
+	 * 
+	 * @param vector
+	 * @param last
+	 * @param out
+	 * @return False if nothing was written because a full vector is smaller
+	 */
+	private boolean encodeVectorDelta(VectorTimeStamp vector, VectorTimeStamp last, WireWriter out) {
+		int changedCount = 0;
+		for (int i = 0; i < vector.size(); i++) {
+			if (vector.get(i) != last.get(i))
+				changedCount++;
+		}
+		// Each pair costs about two entries
+		if (changedCount * 2 >= vector.size())
+			return false;
+		out.writeByte(TIME_STAMP_VECTOR_DELTA);
+		out.writeVarInt(vector.size());
+		out.writeVarInt(changedCount);
+		for (int i = 0; i < vector.size(); i++) {
+			if (vector.get(i) != last.get(i)) {
+				out.writeVarInt(i);
+				out.writeVarInt(vector.get(i));
+			}
+		}
+		return true;
+	}
+
+	private Object decodeTimeStamp(TimeStampedMessage message, WireReader in, VectorDeltaContext context)
+			throws IOException {
+		int tag = in.readByte();
+		switch (tag) {
+		case TIME_STAMP_NULL:
+			return null;
+		case TIME_STAMP_LOGICAL:
+			return in.readZigZag();
+		case TIME_STAMP_VECTOR:
+			int size = in.readVarInt();
+			if (size < 0 || size > in.remaining())
+				throw new IOException("Invalid vector size " + size);
+			int[] vector = new int[size];
+			for (int i = 0; i < size; i++) {
+				vector[i] = in.readVarInt();
+			}
+			VectorTimeStamp timeStamp = VectorTimeStamp.wrap(vector);
+			if (context != null)
+				context.setLast(getClockName(message), timeStamp);
+			return timeStamp;
+		case TIME_STAMP_VECTOR_DELTA:
+			return decodeVectorDelta(message, in, context);
+		default:
+			throw new IOException("Unknown time stamp tag " + tag);
+		}
+	}
+
+	private VectorTimeStamp decodeVectorDelta(TimeStampedMessage message, WireReader in, VectorDeltaContext context)
+			throws IOException {
+		String clockName = getClockName(message);
+		VectorTimeStamp last = context == null ? null : context.getLast(clockName);
+		int size = in.readVarInt();
+		if (last == null || last.size() != size)
+			throw new IOException("Vector delta without a matching base for clock '" + clockName + "'");
+		int[] vector = last.toArray();
+		int changedCount = in.readVarInt();
+		for (int i = 0; i < changedCount; i++) {
+			int index = in.readVarInt();
+			if (index < 0 || index >= size)
+				throw new IOException("Invalid vector index " + index);
+			vector[index] = in.readVarInt();
+		}
+		VectorTimeStamp timeStamp = VectorTimeStamp.wrap(vector);
+		context.setLast(clockName, timeStamp);
+		return timeStamp;
+	}
+
+	/**
+	 * Name of the clock a message's vector comes from: its multicast group, or
+	 * the main clock
+	 * 
+	 * @param message
+	 * @return
+	 */
+	private String getClockName(TimeStampedMessage message) {
+		String groupName = message.getMulticastGroupName();
+		return groupName == null ? MAIN_CLOCK : groupName;
+	}
+}
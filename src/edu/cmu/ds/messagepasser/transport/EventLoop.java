@@ -0,0 +1,218 @@
+package edu.cmu.ds.messagepasser.transport;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single selector thread that serves any number of peer channels, reading
+ * incoming frames and writing queued outgoing ones
+ */
+class EventLoop implements Runnable {
+	/*
+	 * True on the threads of every event loop, of any transport
+	 */
+	private static final ThreadLocal<Boolean> eventLoopThread = new ThreadLocal<Boolean>();
+
+	private final SelectorTransport transport;
+	private final MessageHandler handler;
+	private final Selector selector;
+	private final ConcurrentLinkedQueue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<SocketChannel>();
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private volatile boolean running = true;
+	private volatile Thread thread;
+
+	EventLoop(SelectorTransport transport, MessageHandler handler) throws IOException {
+		this.transport = transport;
+		this.handler = handler;
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Accept connections on a server channel. Accepted channels are spread
+	 * over all event loops of the transport.
+	 *
+	 * Must be called before the loop is started.
+	 *
+	 * @param serverChannel
+	 * @throws IOException
+	 */
+	void registerAcceptor(ServerSocketChannel serverChannel) throws IOException {
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * Hand a connected channel over to this loop. Safe to call from any
+	 * thread.
+	 *
+	 * @param channel
+	 */
+	void register(SocketChannel channel) {
+		pendingChannels.add(channel);
+		selector.wakeup();
+	}
+
+	/**
+	 * Run a task on this loop's thread. Safe to call from any thread.
+	 * 
+	 * @param task
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		if (!inEventLoop())
+			selector.wakeup();
+	}
+
+	boolean inEventLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * @return True if the current thread runs an event loop, this one or
+	 *         another
+	 */
+	static boolean isEventLoopThread() {
+		return eventLoopThread.get() != null;
+	}
+
+	/**
+	 * Register a channel with this loop's selector. Must be called on the loop
+	 * thread.
+	 * 
+	 * @param channel
+	 * @param ops
+	 * @param attachment
+	 * @return
+	 * @throws ClosedChannelException
+	 */
+	SelectionKey registerChannel(SocketChannel channel, int ops, Object attachment) throws ClosedChannelException {
+		return channel.register(selector, ops, attachment);
+	}
+
+	void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+
+	public void run() {
+		thread = Thread.currentThread();
+		eventLoopThread.set(Boolean.TRUE);
+		try {
+			while (running) {
+				if (tasks.isEmpty())
+					selector.select();
+				else
+					selector.selectNow();
+				registerPendingChannels();
+				runTasks();
+				Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+				while (iter.hasNext()) {
+					SelectionKey key = iter.next();
+					iter.remove();
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable()) {
+						accept((ServerSocketChannel) key.channel());
+					} else if (key.attachment() instanceof OutboundConnection) {
+						OutboundConnection connection = (OutboundConnection) key.attachment();
+						if (key.isConnectable())
+							connection.finishConnect();
+						else if (key.isWritable())
+							connection.flush();
+					} else if (key.isReadable()) {
+						read(key);
+					}
+				}
+			}
+		} catch (ClosedSelectorException e) {
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			closeAll();
+		}
+	}
+
+	private void registerPendingChannels() {
+		SocketChannel channel;
+		while ((channel = pendingChannels.poll()) != null) {
+			try {
+				channel.configureBlocking(false);
+				channel.register(selector, SelectionKey.OP_READ, new InboundConnection(channel));
+			} catch (IOException e) {
+				close(channel);
+			}
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void accept(ServerSocketChannel serverChannel) {
+		try {
+			SocketChannel channel;
+			while ((channel = serverChannel.accept()) != null) {
+				channel.socket().setTcpNoDelay(true);
+				transport.nextLoop().register(channel);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void read(SelectionKey key) {
+		InboundConnection connection = (InboundConnection) key.attachment();
+		try {
+			if (!connection.read(handler)) {
+				key.cancel();
+				close(connection.getChannel());
+			}
+		} catch (IOException e) {
+			// Broken or malformed stream: drop the connection, the peer will
+			// reconnect on its next send
+			key.cancel();
+			close(connection.getChannel());
+		} catch (RuntimeException e) {
+			// A frame that fails to decode (or deserialize) must not take the
+			// whole loop down with the other channels: drop this one only
+			System.out.println("Dropped a connection from " + connection.getChannel().socket().getRemoteSocketAddress()
+					+ " after a malformed frame | " + e);
+			key.cancel();
+			close(connection.getChannel());
+		}
+	}
+
+	private void closeAll() {
+		try {
+			for (SelectionKey key : selector.keys()) {
+				try {
+					key.channel().close();
+				} catch (IOException e) {
+				}
+			}
+			selector.close();
+		} catch (Exception e) {
+		}
+	}
+
+	private void close(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+		}
+	}
+}
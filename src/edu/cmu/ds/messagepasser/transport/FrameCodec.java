@@ -0,0 +1,107 @@
+package edu.cmu.ds.messagepasser.transport;
+
+import java.io.IOException;
+
+import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
+
+/**
+ * Length-prefixed framing of messages on peer channels
+ *
+ * A frame is a 4-byte big-endian payload length followed by the payload. The
+ * first payload byte is the id of the MessageCodec that encoded the rest.
+ */
+public class FrameCodec {
+	public static final int LENGTH_FIELD_SIZE = 4;
+	public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+	public static final String DEFAULT_CODEC_NAME = BinaryCodec.NAME;
+
+	private static final int MAX_SCRATCH_CAPACITY = 64 * 1024;
+	private static final MessageCodec[] CODECS = { new SerializationCodec(), new BinaryCodec() };
+
+	/*
+	 * Encoding buffer reused by each sending thread
+	 */
+	private static final ThreadLocal<WireWriter> scratch = new ThreadLocal<WireWriter>() {
+		@Override
+		protected WireWriter initialValue() {
+			return new WireWriter();
+		}
+	};
+
+	/**
+	 * Look up a codec by its configuration name
+	 *
+	 * @param name
+	 *            Codec name. Null selects the default codec.
+	 * @return
+	 */
+	public static MessageCodec forName(String name) {
+		if (name == null)
+			name = DEFAULT_CODEC_NAME;
+		for (MessageCodec codec : CODECS) {
+			if (codec.getName().equals(name))
+				return codec;
+		}
+		throw new IllegalArgumentException("Unknown codec " + name);
+	}
+
+	/**
+	 * Encode a message into a complete frame, including its length prefix
+	 *
+	 * @param message
+	 * @param codec
+	 * @return
+	 * @throws IOException
+	 */
+	public static byte[] encode(TimeStampedMessage message, MessageCodec codec) throws IOException {
+		WireWriter out = scratch.get();
+		out.reset();
+		encode(message, codec, out, null);
+		byte[] frame = out.toByteArray();
+		if (out.capacity() > MAX_SCRATCH_CAPACITY) {
+			// Don't let one large message pin a large buffer forever
+			scratch.remove();
+		}
+		return frame;
+	}
+
+	/**
+	 * Append a complete frame to a buffer that may already hold other frames
+	 *
+	 * @param message
+	 * @param codec
+	 * @param out
+	 * @param context
+	 *            Outbound state of the connection for differential vectors, or
+	 *            null
+	 * @throws IOException
+	 */
+	public static void encode(TimeStampedMessage message, MessageCodec codec, WireWriter out,
+			VectorDeltaContext context) throws IOException {
+		int start = out.size();
+		out.skip(LENGTH_FIELD_SIZE);
+		out.writeByte(codec.getId());
+		codec.encode(message, out, context);
+		out.putInt(start, out.size() - start - LENGTH_FIELD_SIZE);
+	}
+
+	/**
+	 * Decode a frame payload (without its length prefix)
+	 *
+	 * @param payload
+	 * @param offset
+	 * @param length
+	 * @param context
+	 *            Inbound state of the connection for differential vectors
+	 * @return
+	 * @throws IOException
+	 */
+	public static TimeStampedMessage decode(byte[] payload, int offset, int length, VectorDeltaContext context)
+			throws IOException {
+		WireReader in = new WireReader(payload, offset, length);
+		int codecId = in.readByte();
+		if (codecId >= CODECS.length)
+			throw new IOException("Unknown codec id " + codecId);
+		return CODECS[codecId].decode(in, context);
+	}
+}
@@ -0,0 +1,87 @@
+package edu.cmu.ds.messagepasser.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
+
+/**
+ * Read side of a peer channel. Accumulates bytes until complete frames are
+ * available and hands every decoded message to the handler.
+ */
+class InboundConnection {
+	private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+	private final SocketChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+	private final VectorDeltaContext deltaContext = new VectorDeltaContext();
+
+	InboundConnection(SocketChannel channel) {
+		this.channel = channel;
+	}
+
+	SocketChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Read whatever is available on the channel and dispatch complete frames
+	 *
+	 * @param handler
+	 * @return False if the peer has closed the channel
+	 * @throws IOException
+	 */
+	boolean read(MessageHandler handler) throws IOException {
+		int bytesRead;
+		while ((bytesRead = channel.read(buffer)) > 0) {
+			buffer.flip();
+			dispatchFrames(handler);
+			buffer.compact();
+			if (!buffer.hasRemaining()) {
+				grow(buffer.capacity() * 2);
+			}
+		}
+		return bytesRead >= 0;
+	}
+
+	private void dispatchFrames(MessageHandler handler) throws IOException {
+		while (buffer.remaining() >= FrameCodec.LENGTH_FIELD_SIZE) {
+			int length = buffer.getInt(buffer.position());
+			if (length < 0 || length > FrameCodec.MAX_FRAME_SIZE)
+				throw new IOException("Invalid frame length " + length);
+			if (buffer.remaining() < FrameCodec.LENGTH_FIELD_SIZE + length) {
+				// Make sure the whole frame will fit once it arrives
+				if (buffer.capacity() < FrameCodec.LENGTH_FIELD_SIZE + length) {
+					buffer.compact();
+					grow(FrameCodec.LENGTH_FIELD_SIZE + length);
+					buffer.flip();
+				}
+				return;
+			}
+			int payloadOffset = buffer.arrayOffset() + buffer.position() + FrameCodec.LENGTH_FIELD_SIZE;
+			TimeStampedMessage message = FrameCodec.decode(buffer.array(), payloadOffset, length, deltaContext);
+			buffer.position(buffer.position() + FrameCodec.LENGTH_FIELD_SIZE + length);
+			if (message == null)
+				continue;
+			try {
+				handler.onMessage(message);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Replace the buffer with a larger one, keeping its content. The buffer
+	 * must be in write mode.
+	 *
+	 * @param capacity
+	 */
+	private void grow(int capacity) {
+		ByteBuffer larger = ByteBuffer.allocate(capacity);
+		buffer.flip();
+		larger.put(buffer);
+		buffer = larger;
+	}
+}
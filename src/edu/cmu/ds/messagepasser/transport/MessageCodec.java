@@ -0,0 +1,45 @@
+package edu.cmu.ds.messagepasser.transport;
+
+import java.io.IOException;
+
+import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
+
+/**
+ * Encoding of a TimeStampedMessage into a frame payload
+ *
+ * Every frame names the codec that produced it, so nodes configured with
+ * different codecs can still talk to each other.
+ */
+public abstract class MessageCodec {
+
+	/**
+	 * @return Identifier written in front of every payload of this codec
+	 */
+	public abstract int getId();
+
+	/**
+	 * @return Name used to select this codec in the configuration file
+	 */
+	public abstract String getName();
+
+	/**
+	 * @param message
+	 * @param out
+	 * @param context
+	 *            Connection state for differential vector time stamps. Null to
+	 *            always send full vectors.
+	 * @throws IOException
+	 */
+	public abstract void encode(TimeStampedMessage message, WireWriter out, VectorDeltaContext context)
+			throws IOException;
+
+	/**
+	 * @param in
+	 * @param context
+	 *            Connection state for differential vector time stamps
+	 * @return
+	 * @throws IOException
+	 */
+	public abstract TimeStampedMessage decode(WireReader in, VectorDeltaContext context) throws IOException;
+
+}
@@ -0,0 +1,13 @@
+package edu.cmu.ds.messagepasser.transport;
+
+import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
+
+/**
+ * Callback invoked by an event loop for every complete frame read from a peer
+ * channel
+ */
+public interface MessageHandler {
+
+	public void onMessage(TimeStampedMessage message);
+
+}
@@ -0,0 +1,293 @@
+package edu.cmu.ds.messagepasser.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
+
+/**
+ * Write side of a peer channel
+ *
+ * Senders only enqueue messages. The owning event loop drains the queue,
+ * encodes as many queued messages as fit in one batch into a single buffer
+ * and writes it with one socket write.
+ */
+public class OutboundConnection {
+	private static final int MAX_BATCH_BYTES = 64 * 1024;
+	private static final long BLOCK_POLL_MILLIS = 100;
+
+	private final String destination;
+	private final EventLoop eventLoop;
+	private final MessageCodec codec;
+	private final SendQueuePolicy policy;
+	private final ArrayBlockingQueue<TimeStampedMessage> queue;
+	/*
+	 * Messages a sender that must not wait could not queue under the BLOCK
+	 * policy, moved to the queue by the event loop as room appears. Holds as
+	 * many messages as the queue at most.
+	 */
+	private final ConcurrentLinkedQueue<TimeStampedMessage> overflow = new ConcurrentLinkedQueue<TimeStampedMessage>();
+	private final int overflowCapacity;
+	private final AtomicInteger overflowCount = new AtomicInteger(0);
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+	private final Runnable flushTask = new Runnable() {
+		public void run() {
+			flush();
+		}
+	};
+	private SocketChannel channel;
+	private SelectionKey key;
+	private boolean connected = false;
+	private volatile boolean closed = false;
+
+	/*
+	 * Only touched by the event loop thread
+	 */
+	private final WireWriter batch = new WireWriter(MAX_BATCH_BYTES);
+	private final VectorDeltaContext deltaContext;
+	private ByteBuffer pendingBytes = null;
+
+	OutboundConnection(String destination, EventLoop eventLoop, MessageCodec codec, int capacity,
+			SendQueuePolicy policy, boolean vectorDelta) {
+		this.destination = destination;
+		this.deltaContext = vectorDelta ? new VectorDeltaContext() : null;
+		this.eventLoop = eventLoop;
+		this.codec = codec;
+		this.policy = policy;
+		this.queue = new ArrayBlockingQueue<TimeStampedMessage>(capacity);
+		this.overflowCapacity = capacity;
+	}
+
+	public String getDestination() {
+		return destination;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Queue a message for this peer
+	 *
+	 * @param message
+	 * @return False if the message was rejected
+	 */
+	public boolean enqueue(TimeStampedMessage message) {
+		return enqueue(message, true);
+	}
+
+	/**
+	 * Queue a message for this peer
+	 *
+	 * With the BLOCK policy, only application threads that may wait do. A
+	 * transport thread must never wait: it could deadlock with an event loop
+	 * waiting on it, and one slow peer would stall every channel of its loop.
+	 * Neither must a thread holding a lock an event loop may need. Their
+	 * message goes to the overflow list, behind any message already there, and
+	 * is rejected as with FAIL_FAST when that is full too, so that a peer that
+	 * does not keep up holds at most twice the queue capacity. Multicasts and
+	 * total order control messages lost that way are repaired by the group
+	 * timer.
+	 *
+	 * @param message
+	 * @param mayWait
+	 *            False if the caller holds a lock that event loops may need
+	 * @return False if the message was rejected
+	 */
+	public boolean enqueue(TimeStampedMessage message, boolean mayWait) {
+		if (closed)
+			return false;
+		if (policy == SendQueuePolicy.BLOCK && (!mayWait || SelectorTransport.isTransportThread())) {
+			boolean added = overflow.isEmpty() && queue.offer(message);
+			if (!added && overflowCount.incrementAndGet() <= overflowCapacity) {
+				overflow.add(message);
+				added = true;
+			} else if (!added) {
+				overflowCount.decrementAndGet();
+			}
+			scheduleFlush();
+			return added;
+		}
+		boolean added = queue.offer(message);
+		if (!added) {
+			switch (policy) {
+			case FAIL_FAST:
+				break;
+			case DROP_OLDEST:
+				while (!added) {
+					queue.poll();
+					added = queue.offer(message);
+				}
+				break;
+			case BLOCK:
+				try {
+					while (!added && !closed) {
+						added = queue.offer(message, BLOCK_POLL_MILLIS, TimeUnit.MILLISECONDS);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				break;
+			}
+		}
+		if (added)
+			scheduleFlush();
+		return added;
+	}
+
+	public void close() {
+		eventLoop.execute(new Runnable() {
+			public void run() {
+				closeNow(null);
+			}
+		});
+	}
+
+	/**
+	 * Open the channel and register it with the owning event loop
+	 *
+	 * @param address
+	 * @throws IOException
+	 */
+	void connect(InetSocketAddress address) throws IOException {
+		channel = SocketChannel.open();
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		final boolean connectedNow = channel.connect(address);
+		eventLoop.execute(new Runnable() {
+			public void run() {
+				try {
+					key = eventLoop.registerChannel(channel, connectedNow ? 0 : SelectionKey.OP_CONNECT,
+							OutboundConnection.this);
+					if (connectedNow)
+						onConnected();
+				} catch (IOException e) {
+					closeNow(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Called by the event loop when the channel is connectable
+	 */
+	void finishConnect() {
+		try {
+			if (channel.finishConnect()) {
+				onConnected();
+			}
+		} catch (IOException e) {
+			System.out.println("Couldn't connect to " + destination + " | " + e);
+			closeNow(null);
+		}
+	}
+
+	private void onConnected() {
+		connected = true;
+		key.interestOps(0);
+		System.out.println("Connected to " + destination);
+		flush();
+	}
+
+	private void scheduleFlush() {
+		if (flushScheduled.compareAndSet(false, true)) {
+			eventLoop.execute(flushTask);
+		}
+	}
+
+	/**
+	 * Write pending bytes, then keep draining the queue batch by batch until
+	 * it is empty or the socket stops accepting data. Runs on the event loop.
+	 */
+	void flush() {
+		if (closed || !connected)
+			return;
+		try {
+			while (true) {
+				if (pendingBytes == null) {
+					if (!fillBatch()) {
+						flushScheduled.set(false);
+						// A sender may have enqueued after the last poll
+						if ((queue.isEmpty() && overflow.isEmpty()) || !flushScheduled.compareAndSet(false, true))
+							break;
+						continue;
+					}
+				}
+				channel.write(pendingBytes);
+				if (pendingBytes.hasRemaining()) {
+					// Socket buffer is full: resume when writable
+					key.interestOps(SelectionKey.OP_WRITE);
+					return;
+				}
+				pendingBytes = null;
+			}
+			key.interestOps(0);
+		} catch (IOException e) {
+			System.out.println("Couldn't send a message to " + destination + " | " + e);
+			closeNow(null);
+		}
+	}
+
+	/**
+	 * Encode queued messages into one batch buffer
+	 *
+	 * @return False if there was nothing to send
+	 */
+	private boolean fillBatch() {
+		// Overflow messages were queued before any message a transport thread
+		// queued after them
+		TimeStampedMessage spilled;
+		while ((spilled = overflow.peek()) != null && queue.offer(spilled)) {
+			overflow.poll();
+			overflowCount.decrementAndGet();
+		}
+		batch.reset();
+		TimeStampedMessage message;
+		while (batch.size() < MAX_BATCH_BYTES && (message = queue.poll()) != null) {
+			int start = batch.size();
+			if (deltaContext != null)
+				deltaContext.mark();
+			try {
+				FrameCodec.encode(message, codec, batch, deltaContext);
+			} catch (IOException e) {
+				// The frame is dropped, so must be the delta bases it set
+				batch.truncate(start);
+				if (deltaContext != null)
+					deltaContext.rollback();
+				System.out.println("Couldn't encode a message to " + destination + " | " + e);
+			}
+		}
+		if (batch.size() == 0)
+			return false;
+		pendingBytes = batch.toByteBuffer();
+		return true;
+	}
+
+	private void closeNow(IOException cause) {
+		if (closed)
+			return;
+		closed = true;
+		if (cause != null)
+			System.out.println("Couldn't connect to " + destination + " | " + cause);
+		int lost = queue.size() + overflowCount.getAndSet(0);
+		queue.clear();
+		overflow.clear();
+		if (lost > 0)
+			System.out.println(lost + " queued message(s) to " + destination + " were lost");
+		if (key != null)
+			key.cancel();
+		try {
+			if (channel != null)
+				channel.close();
+		} catch (IOException e) {
+		}
+	}
+}
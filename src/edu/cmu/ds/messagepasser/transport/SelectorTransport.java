@@ -0,0 +1,131 @@
+package edu.cmu.ds.messagepasser.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking network layer of a MessagePasser
+ *
+ * A fixed pool of event loops reads framed messages from every accepted peer
+ * channel and writes the queued messages of every outbound connection, so the
+ * number of threads does not depend on the number of peers. The first loop
+ * also accepts incoming connections.
+ */
+public class SelectorTransport {
+	private final int port;
+	private final EventLoop[] eventLoops;
+	private final AtomicInteger nextLoopIndex = new AtomicInteger(0);
+	private ServerSocketChannel serverChannel;
+
+	/**
+	 * @param port
+	 *            Local port to listen on
+	 * @param eventLoopCount
+	 *            Number of selector threads
+	 * @param handler
+	 *            Receives every message read from a peer channel. It is called
+	 *            from event loop threads.
+	 * @throws IOException
+	 */
+	public SelectorTransport(int port, int eventLoopCount, MessageHandler handler) throws IOException {
+		if (eventLoopCount < 1)
+			throw new IllegalArgumentException("At least one event loop is required");
+		this.port = port;
+		this.eventLoops = new EventLoop[eventLoopCount];
+		for (int i = 0; i < eventLoopCount; i++) {
+			eventLoops[i] = new EventLoop(this, handler);
+		}
+	}
+
+	/**
+	 * Bind the local port and start all event loops
+	 *
+	 * @throws IOException
+	 */
+	public void start() throws IOException {
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(port));
+		eventLoops[0].registerAcceptor(serverChannel);
+		for (int i = 0; i < eventLoops.length; i++) {
+			new Thread(eventLoops[i], "eventLoop-" + i).start();
+		}
+	}
+
+	/**
+	 * Open a connection to a peer. Messages can be queued right away; they are
+	 * written once the connection is established.
+	 *
+	 * @param destination
+	 *            Name of the peer
+	 * @param ip
+	 * @param port
+	 * @param codec
+	 *            Codec for outgoing frames
+	 * @param queueCapacity
+	 *            Maximum number of queued messages
+	 * @param policy
+	 *            What to do when the queue is full
+	 * @param vectorDelta
+	 *            True to send only the changed entries of vector time stamps
+	 * @return
+	 * @throws IOException
+	 */
+	public OutboundConnection connect(String destination, String ip, int port, MessageCodec codec, int queueCapacity,
+			SendQueuePolicy policy, boolean vectorDelta) throws IOException {
+		OutboundConnection connection = new OutboundConnection(destination, nextLoop(), codec, queueCapacity, policy,
+				vectorDelta);
+		connection.connect(new InetSocketAddress(ip, port));
+		return connection;
+	}
+
+	public void shutdown() {
+		for (EventLoop eventLoop : eventLoops) {
+			eventLoop.shutdown();
+		}
+		try {
+			if (serverChannel != null)
+				serverChannel.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * @return True if the current thread is an event loop thread, of this
+	 *         transport or another one in the same process. Such a thread must
+	 *         never wait for a peer.
+	 */
+	public static boolean isTransportThread() {
+		return EventLoop.isEventLoopThread();
+	}
+
+	/**
+	 * Run a task on one of the event loops. The task must not wait, as for
+	 * the messages the loops handle.
+	 * 
+	 * @param task
+	 */
+	public void execute(Runnable task) {
+		nextLoop().execute(task);
+	}
+
+	public int getLocalPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	public int getEventLoopCount() {
+		return eventLoops.length;
+	}
+
+	/**
+	 * Pick an event loop for a newly accepted channel (round robin)
+	 *
+	 * @return
+	 */
+	EventLoop nextLoop() {
+		int index = (nextLoopIndex.getAndIncrement() & Integer.MAX_VALUE) % eventLoops.length;
+		return eventLoops[index];
+	}
+}
@@ -0,0 +1,33 @@
+package edu.cmu.ds.messagepasser.transport;
+
+/**
+ * What a sender does when the outbound queue of a peer is full
+ */
+public enum SendQueuePolicy {
+	/**
+	 * Wait until the writer makes room. Only application threads wait, and
+	 * only when they hold no lock the event loops need: otherwise the message
+	 * goes to an overflow list as large as the queue, since waiting there can
+	 * deadlock event loops on each other, and is rejected when that is full.
+	 */
+	BLOCK,
+	/**
+	 * Discard the oldest queued message to make room
+	 */
+	DROP_OLDEST,
+	/**
+	 * Reject the new message immediately
+	 */
+	FAIL_FAST;
+
+	/**
+	 * Parse a policy name from the configuration file (block, drop-oldest,
+	 * fail-fast)
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public static SendQueuePolicy fromName(String name) {
+		return valueOf(name.trim().toUpperCase().replace('-', '_'));
+	}
+}
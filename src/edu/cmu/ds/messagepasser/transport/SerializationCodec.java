@@ -0,0 +1,52 @@
+package edu.cmu.ds.messagepasser.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import edu.cmu.ds.messagepasser.model.TimeStampedMessage;
+
+/**
+ * Java serialization of the whole message. Each frame uses its own object
+ * stream, so no handle table is kept across messages. Vectors are always sent
+ * in full.
+ */
+public class SerializationCodec extends MessageCodec {
+	public static final int ID = 0;
+	public static final String NAME = "java";
+
+	@Override
+	public int getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public void encode(TimeStampedMessage message, WireWriter out, VectorDeltaContext context) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+		ObjectOutputStream ot = new ObjectOutputStream(bytes);
+		ot.writeObject(message);
+		ot.close();
+		byte[] payload = bytes.toByteArray();
+		out.writeBytes(payload, 0, payload.length);
+	}
+
+	@Override
+	public TimeStampedMessage decode(WireReader in, VectorDeltaContext context) throws IOException {
+		byte[] payload = in.readBytes(in.remaining());
+		ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(payload));
+		try {
+			return (TimeStampedMessage) is.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unknown message class in frame", e);
+		} finally {
+			is.close();
+		}
+	}
+}
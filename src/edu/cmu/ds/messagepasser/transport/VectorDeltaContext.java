@@ -0,0 +1,56 @@
+package edu.cmu.ds.messagepasser.transport;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.cmu.ds.messagepasser.clock.VectorTimeStamp;
+
+/**
+ * Last vector time stamp seen on one direction of one connection, per clock
+ * 
+ * Each side of a connection keeps its own context. Because frames are encoded
+ * and decoded in channel order, both contexts hold the same vectors, which lets
+ * the sender transmit only the entries that changed since the previous message
+ * (Singhal-Kshemkalyani differential technique). A message carries the main
+ * clock or the clock of its multicast group, so a base is kept for each.
+ * 
+ * The sender marks the context before each frame and rolls it back if the
+ * frame fails to encode, since the receiver will never see that frame.
+ */
+public class VectorDeltaContext {
+	private final Map<String, VectorTimeStamp> lastVectors = new HashMap<String, VectorTimeStamp>();
+	/*
+	 * Vectors replaced since the last mark, null for a clock that had none
+	 */
+	private final Map<String, VectorTimeStamp> replaced = new HashMap<String, VectorTimeStamp>();
+
+	VectorTimeStamp getLast(String clockName) {
+		return lastVectors.get(clockName);
+	}
+
+	void setLast(String clockName, VectorTimeStamp timeStamp) {
+		VectorTimeStamp previous = lastVectors.put(clockName, timeStamp);
+		if (!replaced.containsKey(clockName))
+			replaced.put(clockName, previous);
+	}
+
+	/**
+	 * Start a frame: a later rollback returns to the vectors held now
+	 */
+	void mark() {
+		replaced.clear();
+	}
+
+	/**
+	 * Undo every change since the last mark
+	 */
+	void rollback() {
+		for (Map.Entry<String, VectorTimeStamp> entry : replaced.entrySet()) {
+			if (entry.getValue() == null)
+				lastVectors.remove(entry.getKey());
+			else
+				lastVectors.put(entry.getKey(), entry.getValue());
+		}
+		replaced.clear();
+	}
+}
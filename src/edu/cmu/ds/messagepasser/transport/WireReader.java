@@ -0,0 +1,76 @@
+package edu.cmu.ds.messagepasser.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Reads the primitive encodings written by WireWriter from a byte range
+ */
+public class WireReader {
+	private final byte[] buffer;
+	private int position;
+	private final int limit;
+
+	public WireReader(byte[] buffer, int offset, int length) {
+		this.buffer = buffer;
+		this.position = offset;
+		this.limit = offset + length;
+	}
+
+	public int remaining() {
+		return limit - position;
+	}
+
+	public int readByte() throws IOException {
+		if (position >= limit)
+			throw new EOFException("Truncated frame");
+		return buffer[position++] & 0xFF;
+	}
+
+	public byte[] readBytes(int length) throws IOException {
+		if (length < 0 || length > remaining())
+			throw new EOFException("Truncated frame");
+		byte[] bytes = new byte[length];
+		System.arraycopy(buffer, position, bytes, 0, length);
+		position += length;
+		return bytes;
+	}
+
+	public int readVarInt() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	public int readZigZag() throws IOException {
+		int value = readVarInt();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	public String readString() throws IOException {
+		int length = readVarInt() - 1;
+		if (length < 0)
+			return null;
+		if (length > remaining())
+			throw new EOFException("Truncated frame");
+		String value = new String(buffer, position, length, WireWriter.UTF8);
+		position += length;
+		return value;
+	}
+}
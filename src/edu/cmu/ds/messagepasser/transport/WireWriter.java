@@ -0,0 +1,142 @@
+package edu.cmu.ds.messagepasser.transport;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer with the primitive encodings used by message codecs
+ */
+public class WireWriter {
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int INITIAL_CAPACITY = 256;
+
+	private byte[] buffer;
+	private int count;
+
+	public WireWriter() {
+		this(INITIAL_CAPACITY);
+	}
+
+	public WireWriter(int capacity) {
+		buffer = new byte[capacity];
+	}
+
+	public void reset() {
+		count = 0;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Discard everything written after a given size
+	 *
+	 * @param size
+	 */
+	public void truncate(int size) {
+		count = size;
+	}
+
+	public int capacity() {
+		return buffer.length;
+	}
+
+	public void writeByte(int value) {
+		ensureCapacity(1);
+		buffer[count++] = (byte) value;
+	}
+
+	public void writeBytes(byte[] bytes, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(bytes, offset, buffer, count, length);
+		count += length;
+	}
+
+	/**
+	 * Write a big-endian int at an absolute position that has already been
+	 * written or skipped
+	 *
+	 * @param position
+	 * @param value
+	 */
+	public void putInt(int position, int value) {
+		buffer[position] = (byte) (value >>> 24);
+		buffer[position + 1] = (byte) (value >>> 16);
+		buffer[position + 2] = (byte) (value >>> 8);
+		buffer[position + 3] = (byte) value;
+	}
+
+	public void skip(int length) {
+		ensureCapacity(length);
+		count += length;
+	}
+
+	/**
+	 * Write an unsigned LEB128 variable length integer (1 byte below 128)
+	 *
+	 * @param value
+	 */
+	public void writeVarInt(int value) {
+		ensureCapacity(5);
+		while ((value & ~0x7F) != 0) {
+			buffer[count++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[count++] = (byte) value;
+	}
+
+	/**
+	 * Write a signed integer so that small negative values stay short
+	 *
+	 * @param value
+	 */
+	public void writeZigZag(int value) {
+		writeVarInt((value << 1) ^ (value >> 31));
+	}
+
+	public void writeVarLong(long value) {
+		ensureCapacity(10);
+		while ((value & ~0x7FL) != 0) {
+			buffer[count++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[count++] = (byte) value;
+	}
+
+	/**
+	 * Write a nullable string as its UTF-8 length plus one, then its bytes
+	 *
+	 * @param value
+	 */
+	public void writeString(String value) {
+		if (value == null) {
+			writeVarInt(0);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF8);
+		writeVarInt(bytes.length + 1);
+		writeBytes(bytes, 0, bytes.length);
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, count);
+	}
+
+	/**
+	 * Wrap the written bytes without copying them. The result is only valid
+	 * until the next write or reset.
+	 *
+	 * @return
+	 */
+	public ByteBuffer toByteBuffer() {
+		return ByteBuffer.wrap(buffer, 0, count);
+	}
+
+	private void ensureCapacity(int extra) {
+		if (count + extra > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + extra));
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package edu.cmu.ds.messagepasser.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timing wheel for large numbers of short, imprecise timeouts
+ *
+ * Time is cut into ticks, and the wheel has one bucket per tick of a round. A
+ * task goes into the bucket of the tick it is due in, with the number of
+ * whole rounds left to wait, so scheduling costs O(1) whatever the number of
+ * pending tasks, and each tick only looks at one bucket. Tasks run late by up
+ * to one tick, in no particular order within a tick.
+ *
+ * Tasks run on the single worker thread of the timer, a daemon, and should be
+ * short. Scheduling is safe from any thread.
+ */
+public class HashedWheelTimer {
+	/**
+	 * A task and when it is due
+	 */
+	private static class Timeout {
+		final Runnable task;
+		final long deadline;
+		long remainingRounds;
+
+		Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+	}
+
+	private final long tickNanos;
+	private final int mask;
+	private final List<Timeout>[] wheel;
+	/*
+	 * Tasks scheduled since the last tick. Only the worker touches the wheel.
+	 */
+	private final ConcurrentLinkedQueue<Timeout> newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+	private final AtomicInteger pending = new AtomicInteger(0);
+	private final long startTime;
+	private final Thread worker;
+	private volatile boolean running = true;
+	private long tick = 0;
+
+	/**
+	 * @param name
+	 *            Name of the worker thread
+	 * @param tickDuration
+	 * @param unit
+	 * @param ticksPerWheel
+	 *            Rounded up to a power of two
+	 */
+	public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if (tickDuration <= 0 || ticksPerWheel <= 0)
+			throw new IllegalArgumentException("Tick duration and ticks per wheel must be positive");
+		this.tickNanos = unit.toNanos(tickDuration);
+		int size = 1;
+		while (size < ticksPerWheel)
+			size <<= 1;
+		this.mask = size - 1;
+		this.wheel = newWheel(size);
+		this.startTime = System.nanoTime();
+		this.worker = new Thread(new Runnable() {
+			public void run() {
+				work();
+			}
+		}, name);
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static List<Timeout>[] newWheel(int size) {
+		List<Timeout>[] wheel = new List[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new ArrayList<Timeout>();
+		}
+		return wheel;
+	}
+
+	/**
+	 * Run a task once after a delay
+	 *
+	 * @param task
+	 * @param delay
+	 * @param unit
+	 */
+	public void schedule(Runnable task, long delay, TimeUnit unit) {
+		if (!running)
+			throw new IllegalStateException("Timer is stopped");
+		newTimeouts.add(new Timeout(task, System.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0))));
+		pending.incrementAndGet();
+	}
+
+	/**
+	 * @return Number of tasks scheduled that have not run yet
+	 */
+	public int getPendingCount() {
+		return pending.get();
+	}
+
+	/**
+	 * Stop the worker. Pending tasks never run.
+	 */
+	public void stop() {
+		running = false;
+		worker.interrupt();
+	}
+
+	private void work() {
+		while (running) {
+			long sleepNanos = tickNanos * (tick + 1) - (System.nanoTime() - startTime);
+			if (sleepNanos > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleepNanos);
+				} catch (InterruptedException e) {
+					continue;
+				}
+			}
+			transferNewTimeouts();
+			expire(wheel[(int) (tick & mask)]);
+			tick++;
+		}
+	}
+
+	/**
+	 * Put the newly scheduled tasks into their buckets. A task already due
+	 * goes into the current one.
+	 */
+	private void transferNewTimeouts() {
+		Timeout timeout;
+		while ((timeout = newTimeouts.poll()) != null) {
+			long dueTick = Math.max(timeout.deadline / tickNanos, tick);
+			timeout.remainingRounds = (dueTick - tick) / wheel.length;
+			wheel[(int) (dueTick & mask)].add(timeout);
+		}
+	}
+
+	/**
+	 * Run the tasks of a bucket due in this round and count down the others
+	 */
+	private void expire(List<Timeout> bucket) {
+		int kept = 0;
+		for (int i = 0; i < bucket.size(); i++) {
+			Timeout timeout = bucket.get(i);
+			if (timeout.remainingRounds > 0) {
+				timeout.remainingRounds--;
+				bucket.set(kept++, timeout);
+				continue;
+			}
+			pending.decrementAndGet();
+			try {
+				timeout.task.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+		bucket.subList(kept, bucket.size()).clear();
+	}
+}